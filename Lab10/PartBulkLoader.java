@@ -0,0 +1,338 @@
+/*
+ * Part Bulk Loader
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads large numbers of parts into part_nyc or part_sfo.
+ *
+ * Rows inserted one at a time get their part number from the row trigger
+ * in triggers.sql, which calls nextval('part_number_seq') per row.  The
+ * loader instead reserves whole blocks of BLOCK numbers from
+ * part_number_block_seq, one nextval() per block, and fills part_number
+ * itself; the trigger only fires for rows inserted without a part number.  Rows are
+ * then written with multi-row INSERT statements or with COPY.
+ *
+ * Input files have one part per line: supplier,color,on_hand,descr
+ *
+ */
+public class PartBulkLoader {
+
+   // rows per multi-row INSERT; 5 parameters per row stays far below the
+   // 32767 bind parameter limit of the protocol.
+   private static final int ROWS_PER_INSERT = 1000;
+
+   // rows per COPY round trip
+   private static final int CHUNK = 10000;
+
+   // part numbers reserved by one nextval('part_number_block_seq'); must
+   // match the INCREMENT BY of that sequence in triggers.sql.
+   private static final int BLOCK = 10000;
+
+   /**
+    * One row of part_nyc / part_sfo without its part number.
+    */
+   public static class Part {
+      public final int supplier;
+      public final int color;
+      public final int onHand;
+      public final String descr;
+
+      public Part (int supplier, int color, int onHand, String descr) {
+         this.supplier = supplier;
+         this.color = color;
+         this.onHand = onHand;
+         this.descr = descr;
+      }
+   }//end Part
+
+   private Connection _connection = null;
+
+   // reserved part numbers not handed out yet: [_blockNext, _blockEnd)
+   private int _blockNext = 0;
+   private int _blockEnd = 0;
+
+   public PartBulkLoader (String dbname, String dbport, String user, String passwd) throws SQLException {
+      System.out.print("Connecting to database...");
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+      System.out.println ("Connection URL: " + url + "\n");
+      this._connection = DriverManager.getConnection(url, user, passwd);
+      System.out.println("Done");
+   }//end PartBulkLoader
+
+   /**
+    * Method to hand out part numbers from reserved blocks, reserving a new
+    * block of BLOCK numbers whenever the current one runs out.
+    *
+    * @param count how many numbers to take
+    * @return the part numbers
+    * @throws java.sql.SQLException when failed to reserve a block
+    */
+   public int[] prefetchPartNumbers (int count) throws SQLException {
+      int[] numbers = new int[count];
+      for (int i = 0; i < count; ++i) {
+         if (_blockNext == _blockEnd) reserveBlock ();
+         numbers[i] = _blockNext++;
+      }//end for
+      return numbers;
+   }//end prefetchPartNumbers
+
+   /**
+    * Method to reserve the next block [v, v + BLOCK) with a single nextval.
+    * Blocks that are not used up (a rolled back benchmark run, the end of a
+    * load) are left as gaps.
+    */
+   private void reserveBlock () throws SQLException {
+      Statement stmt = _connection.createStatement ();
+      ResultSet rs = stmt.executeQuery ("SELECT nextval('part_number_block_seq')");
+      rs.next ();
+      _blockNext = rs.getInt (1);
+      _blockEnd = _blockNext + BLOCK;
+      stmt.close ();
+   }//end reserveBlock
+
+   /**
+    * Method to insert parts one INSERT per row, leaving part_number to the
+    * row trigger.  This is how parts are inserted today and is kept as the
+    * baseline of the benchmark.
+    */
+   public void insertSingleRows (String table, List<Part> parts) throws SQLException {
+      PreparedStatement stmt = _connection.prepareStatement (
+         "INSERT INTO " + table + " (supplier, color, on_hand, descr) VALUES (?, ?, ?, ?)");
+      for (Part p : parts) {
+         stmt.setInt (1, p.supplier);
+         stmt.setInt (2, p.color);
+         stmt.setInt (3, p.onHand);
+         stmt.setString (4, p.descr);
+         stmt.executeUpdate ();
+      }//end for
+      stmt.close ();
+   }//end insertSingleRows
+
+   /**
+    * Method to insert parts with multi-row INSERT statements.
+    *
+    * @param table part_nyc or part_sfo
+    * @param parts the rows to insert
+    * @param prefetch when true part numbers are taken from reserved blocks
+    *        and the row trigger is skipped, otherwise the trigger
+    *        assigns every number
+    */
+   public void insertMultiRow (String table, List<Part> parts, boolean prefetch) throws SQLException {
+      PreparedStatement full = null;
+      for (int start = 0; start < parts.size (); start += ROWS_PER_INSERT) {
+         int rows = Math.min (ROWS_PER_INSERT, parts.size () - start);
+         PreparedStatement stmt;
+         if (rows == ROWS_PER_INSERT) {
+            if (full == null) full = prepareMultiRow (table, rows, prefetch);
+            stmt = full;
+         }else {
+            stmt = prepareMultiRow (table, rows, prefetch);
+         }//end if
+
+         int[] numbers = prefetch ? prefetchPartNumbers (rows) : null;
+         int param = 1;
+         for (int i = 0; i < rows; ++i) {
+            Part p = parts.get (start + i);
+            if (prefetch) stmt.setInt (param++, numbers[i]);
+            stmt.setInt (param++, p.supplier);
+            stmt.setInt (param++, p.color);
+            stmt.setInt (param++, p.onHand);
+            stmt.setString (param++, p.descr);
+         }//end for
+         stmt.executeUpdate ();
+         if (stmt != full) stmt.close ();
+      }//end for
+      if (full != null) full.close ();
+   }//end insertMultiRow
+
+   private PreparedStatement prepareMultiRow (String table, int rows, boolean prefetch) throws SQLException {
+      StringBuilder sql = new StringBuilder ("INSERT INTO " + table);
+      sql.append (prefetch ? " (part_number, supplier, color, on_hand, descr) VALUES "
+                           : " (supplier, color, on_hand, descr) VALUES ");
+      String tuple = prefetch ? "(?, ?, ?, ?, ?)" : "(?, ?, ?, ?)";
+      for (int i = 0; i < rows; ++i) {
+         if (i > 0) sql.append (", ");
+         sql.append (tuple);
+      }
+      return _connection.prepareStatement (sql.toString ());
+   }//end prepareMultiRow
+
+   /**
+    * Method to load parts with COPY, using reserved part numbers so the
+    * row trigger is skipped.
+    */
+   public void copy (String table, List<Part> parts) throws SQLException, IOException {
+      CopyManager copier = ((PGConnection) _connection).getCopyAPI ();
+      String sql = "COPY " + table + " (part_number, supplier, color, on_hand, descr) FROM STDIN WITH CSV";
+      for (int start = 0; start < parts.size (); start += CHUNK) {
+         int rows = Math.min (CHUNK, parts.size () - start);
+         int[] numbers = prefetchPartNumbers (rows);
+         StringBuilder data = new StringBuilder ();
+         for (int i = 0; i < rows; ++i) {
+            Part p = parts.get (start + i);
+            data.append (numbers[i]).append (',')
+                .append (p.supplier).append (',')
+                .append (p.color).append (',')
+                .append (p.onHand).append (',')
+                .append ('"').append (p.descr.replace ("\"", "\"\"")).append ('"')
+                .append ('\n');
+         }//end for
+         copier.copyIn (sql, new StringReader (data.toString ()));
+      }//end for
+   }//end copy
+
+   /**
+    * Method to load a whole file of parts with COPY in one transaction, so
+    * a load that fails part way leaves the table as it was and can simply
+    * be run again.
+    *
+    * @param table part_nyc or part_sfo
+    * @param parts the rows to insert
+    */
+   public void load (String table, List<Part> parts) throws SQLException, IOException {
+      boolean autoCommit = _connection.getAutoCommit ();
+      _connection.setAutoCommit (false);
+      try {
+         copy (table, parts);
+         _connection.commit ();
+      }catch (SQLException e) {
+         _connection.rollback ();
+         throw e;
+      }catch (IOException e) {
+         _connection.rollback ();
+         throw e;
+      }finally {
+         _connection.setAutoCommit (autoCommit);
+      }//end try
+   }//end load
+
+   /**
+    * Method to time every load path on the same generated parts.  Each run
+    * is rolled back, so the tables are left as they were.
+    *
+    * @param table part_nyc or part_sfo
+    * @param count number of parts per run
+    */
+   public void benchmark (String table, int count) throws SQLException, IOException {
+      List<Part> parts = new ArrayList<Part>();
+      for (int i = 0; i < count; ++i)
+         parts.add (new Part (i % 10, i % 2, i % 100, "Benchmark part " + i));
+
+      String[] modes = { "single-row, trigger", "multi-row, trigger", "multi-row, prefetched", "copy, prefetched" };
+      boolean autoCommit = _connection.getAutoCommit ();
+      _connection.setAutoCommit (false);
+      try {
+         System.out.println ("mode\trows\tms\trows/s\t");
+         for (int mode = 0; mode < modes.length; ++mode) {
+            long begin = System.nanoTime ();
+            switch (mode) {
+               case 0: insertSingleRows (table, parts); break;
+               case 1: insertMultiRow (table, parts, false); break;
+               case 2: insertMultiRow (table, parts, true); break;
+               case 3: copy (table, parts); break;
+            }//end switch
+            long ms = Math.max (1, (System.nanoTime () - begin) / 1000000);
+            _connection.rollback ();
+            System.out.println (modes[mode] + "\t" + count + "\t" + ms + "\t" + (count * 1000L / ms) + "\t");
+         }//end for
+      }finally {
+         _connection.rollback ();
+         _connection.setAutoCommit (autoCommit);
+      }//end try
+   }//end benchmark
+
+   /**
+    * Method to read parts from a file of supplier,color,on_hand,descr lines.
+    */
+   public static List<Part> readParts (String file) throws IOException {
+      List<Part> parts = new ArrayList<Part>();
+      BufferedReader reader = new BufferedReader (new FileReader (file));
+      String line;
+      while ((line = reader.readLine ()) != null) {
+         if (line.trim ().isEmpty ()) continue;
+         String[] fields = line.split (",", 4);
+         parts.add (new Part (Integer.parseInt (fields[0].trim ()),
+                              Integer.parseInt (fields[1].trim ()),
+                              Integer.parseInt (fields[2].trim ()),
+                              fields.length > 3 ? fields[3] : ""));
+      }//end while
+      reader.close ();
+      return parts;
+   }//end readParts
+
+   /**
+    * Method to close the physical connection if it is open.
+    */
+   public void cleanup(){
+      try{
+         if (this._connection != null){
+            this._connection.close ();
+         }//end if
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end cleanup
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <part_nyc|part_sfo> <file|-benchmark rows>
+    */
+   public static void main (String[] args) {
+      if (args.length < 5 || !(args[3].equals("part_nyc") || args[3].equals("part_sfo"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PartBulkLoader.class.getName () +
+            " <dbname> <port> <user> <part_nyc|part_sfo> <file> | -benchmark <rows>");
+         return;
+      }//end if
+
+      PartBulkLoader loader = null;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         loader = new PartBulkLoader (args[0], args[1], args[2], "");
+         String table = args[3];
+
+         if (args[4].equals ("-benchmark")) {
+            loader.benchmark (table, args.length > 5 ? Integer.parseInt (args[5]) : 100000);
+         }else {
+            List<Part> parts = readParts (args[4]);
+            long begin = System.nanoTime ();
+            loader.load (table, parts);
+            long ms = Math.max (1, (System.nanoTime () - begin) / 1000000);
+            System.out.println ("Loaded " + parts.size () + " parts into " + table + " in " + ms + " ms");
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (loader != null) loader.cleanup ();
+      }//end try
+   }//end main
+
+}//end PartBulkLoader
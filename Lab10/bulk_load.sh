@@ -0,0 +1,12 @@
+#!/bin/bash
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD:$PWD/../phase3/code/java/lib/postgresql-42.1.4.jar
+
+# compile the java program
+javac PartBulkLoader.java
+
+# load a file of supplier,color,on_hand,descr lines:
+#   ./bulk_load.sh part_nyc parts.csv
+# or compare the insert paths without keeping the rows:
+#   ./bulk_load.sh part_nyc -benchmark 100000
+java PartBulkLoader $LOGNAME"_DB" $PGPORT $USER "$@"
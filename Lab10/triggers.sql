@@ -1,5 +1,10 @@
 CREATE SEQUENCE part_number_seq  START WITH 50000;
 
+-- PartBulkLoader reserves blocks of 10000 part numbers with one nextval().
+-- Blocks start at 1000000000 so they never meet the numbers handed out one
+-- at a time by part_number_seq.
+CREATE SEQUENCE part_number_block_seq START WITH 1000000000 INCREMENT BY 10000 MAXVALUE 2147470000;
+
 CREATE LANGUAGE plpgsql;
 CREATE OR REPLACE FUNCTION get_part_number()
  RETURNS "trigger" AS
@@ -11,8 +16,18 @@ CREATE OR REPLACE FUNCTION get_part_number()
  $BODY$
  LANGUAGE plpgsql VOLATILE;
 
+  -- Rows that already carry a part number (PartBulkLoader reserves them
+  -- from part_number_block_seq) skip the trigger entirely.
   CREATE TRIGGER PartNumberTrigger
  BEFORE INSERT
  ON part_nyc
  FOR EACH ROW
+ WHEN (NEW.part_number IS NULL)
+ EXECUTE PROCEDURE get_part_number();
+
+  CREATE TRIGGER PartNumberTriggerSfo
+ BEFORE INSERT
+ ON part_sfo
+ FOR EACH ROW
+ WHEN (NEW.part_number IS NULL)
  EXECUTE PROCEDURE get_part_number();
\ No newline at end of file
@@ -0,0 +1,290 @@
+/*
+ * Catalog Query Service
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class answers the supplier/part/price questions over the Suppliers,
+ * Parts and Catalog tables with prepared statements.  It also keeps an
+ * in-memory index of the cheapest supplier of every part and of the number
+ * of parts every supplier carries.  The index is loaded once and then kept
+ * up to date by the catalog changes made through this class, so the
+ * pricing lookups never scan Catalog.  Changes made by anyone else (psql,
+ * another client) are not seen until reload() is called.
+ *
+ */
+public class CatalogQueryService {
+
+   /**
+    * One supplier's price for a part.
+    */
+   public static class Offer {
+      public final int sid;
+      public final double cost;
+
+      public Offer (int sid, double cost) {
+         this.sid = sid;
+         this.cost = cost;
+      }
+   }//end Offer
+
+   private Connection _connection = null;
+
+   // pid -> cheapest offer for that part
+   private Map<Integer, Offer> _cheapest = new HashMap<Integer, Offer>();
+   // sid -> number of parts in that supplier's catalog, ordered by sid
+   private Map<Integer, Integer> _partCount = new TreeMap<Integer, Integer>();
+   private Map<Integer, String> _supplierName = new HashMap<Integer, String>();
+   private Map<Integer, String> _partName = new HashMap<Integer, String>();
+
+   private PreparedStatement _onlyColor = null;
+   private PreparedStatement _bothColors = null;
+   private PreparedStatement _supplierAddress = null;
+   private PreparedStatement _findOffer = null;
+   private PreparedStatement _insertOffer = null;
+   private PreparedStatement _updateOffer = null;
+   private PreparedStatement _cheapestOffer = null;
+
+   /**
+    * Creates a new instance of CatalogQueryService and loads the index.
+    *
+    * @param connection an open connection to the database with the catalog
+    * @throws java.sql.SQLException when failed to prepare or load
+    */
+   public CatalogQueryService (Connection connection) throws SQLException {
+      this._connection = connection;
+
+      this._onlyColor = connection.prepareStatement (
+         "SELECT S.sname, COUNT(*) FROM Suppliers S, Catalog C " +
+         "WHERE S.sid = C.sid AND NOT EXISTS (" +
+         "SELECT * FROM Catalog C2, Parts P WHERE C2.sid = S.sid AND C2.pid = P.pid AND P.color <> ?) " +
+         "GROUP BY S.sid, S.sname");
+      this._bothColors = connection.prepareStatement (
+         "SELECT S.sname, MAX(C.cost) FROM Suppliers S, Catalog C " +
+         "WHERE S.sid = C.sid " +
+         "AND S.sid IN (SELECT C2.sid FROM Catalog C2, Parts P WHERE C2.pid = P.pid AND P.color = ?) " +
+         "AND S.sid IN (SELECT C3.sid FROM Catalog C3, Parts P WHERE C3.pid = P.pid AND P.color = ?) " +
+         "GROUP BY S.sid, S.sname");
+      this._supplierAddress = connection.prepareStatement (
+         "SELECT DISTINCT S.sname, S.address FROM Suppliers S, Catalog C, Parts P " +
+         "WHERE S.sid = C.sid AND C.pid = P.pid AND P.pname = ?");
+      this._findOffer = connection.prepareStatement (
+         "SELECT cost FROM Catalog WHERE sid = ? AND pid = ?");
+      this._insertOffer = connection.prepareStatement (
+         "INSERT INTO Catalog (sid, pid, cost) VALUES (?, ?, ?)");
+      this._updateOffer = connection.prepareStatement (
+         "UPDATE Catalog SET cost = ? WHERE sid = ? AND pid = ?");
+      this._cheapestOffer = connection.prepareStatement (
+         "SELECT sid, cost FROM Catalog WHERE pid = ? ORDER BY cost, sid");
+
+      reload ();
+   }//end CatalogQueryService
+
+   /**
+    * Method to rebuild the whole index from the database.  This is the only
+    * place that reads the full Catalog table.
+    *
+    * @throws java.sql.SQLException when failed to read the tables
+    */
+   public void reload () throws SQLException {
+      _cheapest.clear ();
+      _partCount.clear ();
+      _supplierName.clear ();
+      _partName.clear ();
+
+      PreparedStatement stmt = _connection.prepareStatement ("SELECT sid, sname FROM Suppliers");
+      ResultSet rs = stmt.executeQuery ();
+      while (rs.next ()) {
+         _supplierName.put (rs.getInt (1), trim (rs.getString (2)));
+         _partCount.put (rs.getInt (1), 0);
+      }//end while
+      stmt.close ();
+
+      stmt = _connection.prepareStatement ("SELECT pid, pname FROM Parts");
+      rs = stmt.executeQuery ();
+      while (rs.next ())
+         _partName.put (rs.getInt (1), trim (rs.getString (2)));
+      stmt.close ();
+
+      stmt = _connection.prepareStatement ("SELECT sid, pid, cost FROM Catalog");
+      rs = stmt.executeQuery ();
+      while (rs.next ())
+         index (rs.getInt (1), rs.getInt (2), rs.getDouble (3));
+      stmt.close ();
+   }//end reload
+
+   /**
+    * Returns the number of parts supplied by each supplier, ordered by sid.
+    * Answered from the index.
+    */
+   public Map<Integer, Integer> partCounts () {
+      return _partCount;
+   }
+
+   /**
+    * Returns the cheapest offer for a part, or null when nobody supplies it.
+    * Answered from the index.
+    */
+   public Offer cheapest (int pid) {
+      return _cheapest.get (pid);
+   }
+
+   public String supplierName (int sid) {
+      return _supplierName.get (sid);
+   }
+
+   public String partName (int pid) {
+      return _partName.get (pid);
+   }
+
+   /**
+    * Returns the names of the parts that some supplier sells below the given
+    * cost.  A part qualifies exactly when its cheapest offer does, so this is
+    * answered from the index.
+    *
+    * @param cost the upper bound, exclusive
+    * @return the matching part names, one per part
+    */
+   public List<String> partsCheaperThan (double cost) {
+      List<String> names = new ArrayList<String>();
+      for (Map.Entry<Integer, Offer> e : _cheapest.entrySet ())
+         if (e.getValue ().cost < cost)
+            names.add (_partName.get (e.getKey ()));
+      return names;
+   }//end partsCheaperThan
+
+   /**
+    * Returns (sname, number of parts) for every supplier that only supplies
+    * parts of the given color.
+    */
+   public List<List<String>> suppliersOnlyOfColor (String color) throws SQLException {
+      _onlyColor.setString (1, color);
+      return collect (_onlyColor.executeQuery ());
+   }
+
+   /**
+    * Returns (sname, most expensive price) for every supplier that supplies
+    * parts of both given colors.
+    */
+   public List<List<String>> mostExpensiveOfSuppliersOfBoth (String color1, String color2) throws SQLException {
+      _bothColors.setString (1, color1);
+      _bothColors.setString (2, color2);
+      return collect (_bothColors.executeQuery ());
+   }
+
+   /**
+    * Returns (sname, address) of every supplier of a part with the given name.
+    */
+   public List<List<String>> suppliersOfPart (String pname) throws SQLException {
+      _supplierAddress.setString (1, pname);
+      return collect (_supplierAddress.executeQuery ());
+   }
+
+   /**
+    * Method to add a part to a supplier's catalog or change its price.  The
+    * index is updated for that one (sid, pid) pair only.
+    *
+    * @param sid the supplier id
+    * @param pid the part id
+    * @param cost the new price
+    * @throws java.sql.SQLException when the catalog update failed
+    */
+   public void setPrice (int sid, int pid, double cost) throws SQLException {
+      _findOffer.setInt (1, sid);
+      _findOffer.setInt (2, pid);
+      ResultSet rs = _findOffer.executeQuery ();
+      boolean exists = rs.next ();
+      rs.close ();
+
+      if (!exists) {
+         _insertOffer.setInt (1, sid);
+         _insertOffer.setInt (2, pid);
+         _insertOffer.setDouble (3, cost);
+         _insertOffer.executeUpdate ();
+         index (sid, pid, cost);
+         return;
+      }//end if
+
+      _updateOffer.setDouble (1, cost);
+      _updateOffer.setInt (2, sid);
+      _updateOffer.setInt (3, pid);
+      _updateOffer.executeUpdate ();
+
+      Offer best = _cheapest.get (pid);
+      if (best == null || cost < best.cost || (cost == best.cost && sid < best.sid)) {
+         _cheapest.put (pid, new Offer (sid, cost));
+      }else if (best.sid == sid) {
+         // the cheapest supplier raised its price, someone else may be cheaper now
+         _cheapestOffer.setInt (1, pid);
+         rs = _cheapestOffer.executeQuery ();
+         if (rs.next ())
+            _cheapest.put (pid, new Offer (rs.getInt (1), rs.getDouble (2)));
+         rs.close ();
+      }//end if
+   }//end setPrice
+
+   /**
+    * Method to account for a new catalog row in the index.
+    */
+   private void index (int sid, int pid, double cost) {
+      Integer count = _partCount.get (sid);
+      _partCount.put (sid, count == null ? 1 : count + 1);
+
+      Offer best = _cheapest.get (pid);
+      if (best == null || cost < best.cost || (cost == best.cost && sid < best.sid))
+         _cheapest.put (pid, new Offer (sid, cost));
+   }//end index
+
+   private static List<List<String>> collect (ResultSet rs) throws SQLException {
+      int numCol = rs.getMetaData ().getColumnCount ();
+      List<List<String>> result = new ArrayList<List<String>>();
+      while (rs.next ()) {
+         List<String> record = new ArrayList<String>();
+         for (int i=1; i<=numCol; ++i) {
+            record.add (trim (rs.getString (i)));
+         }
+         result.add (record);
+      }//end while
+      rs.close ();
+      return result;
+   }//end collect
+
+   // CHAR columns come back blank padded; NULL stays null.
+   private static String trim (String value) {
+      return value == null ? null : value.trim ();
+   }
+
+   /**
+    * Method to close the prepared statements.
+    */
+   public void close () {
+      PreparedStatement[] stmts = { _onlyColor, _bothColors, _supplierAddress,
+                                    _findOffer, _insertOffer, _updateOffer, _cheapestOffer };
+      for (PreparedStatement stmt : stmts) {
+         try {
+            if (stmt != null) stmt.close ();
+         }catch (SQLException e) {
+            // ignored.
+         }
+      }//end for
+   }//end close
+
+}//end CatalogQueryService
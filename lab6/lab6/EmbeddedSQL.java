@@ -21,6 +21,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,6 +34,9 @@ public class EmbeddedSQL {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // supplier/part/price lookups, created on first use.
+   private CatalogQueryService _catalog = null;
+
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
@@ -125,11 +130,46 @@ public class EmbeddedSQL {
       return rowCount;
    }//end executeQuery
 
+   /**
+    * Method to print a list of records returned by the catalog service in
+    * the same layout as executeQuery.
+    *
+    * @param header the column names
+    * @param rows the records to print
+    * @return the number of rows printed
+    */
+   public static int printRows (String[] header, List<List<String>> rows) {
+      if (rows.isEmpty()) return 0;
+      for (String column : header)
+         System.out.print(column + "\t");
+      System.out.println();
+      for (List<String> row : rows){
+         for (String value : row)
+            System.out.print (value + "\t");
+         System.out.println ();
+      }//end for
+      return rows.size();
+   }//end printRows
+
+   /**
+    * Returns the catalog query service, loading its index on first use.
+    *
+    * @throws java.sql.SQLException when failed to load the index
+    */
+   public CatalogQueryService catalog () throws SQLException {
+      if (this._catalog == null)
+         this._catalog = new CatalogQueryService (this._connection);
+      return this._catalog;
+   }//end catalog
+
    /**
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
       try{
+         if (this._catalog != null){
+            this._catalog.close ();
+         }//end if
          if (this._connection != null){
             this._connection.close ();
          }//end if
@@ -177,7 +217,10 @@ public class EmbeddedSQL {
             System.out.println("4. For every supplier that supplies green part and red part, print the name and the price of the most expensive part that he supplies"); 
             System.out.println("5. Find the name of parts with cost lower than $_____");
             System.out.println("6. Find the address of the suppliers who supply _____________ (pname)");
+            System.out.println("7. Find the cheapest supplier of part _____ (pid)");
+            System.out.println("8. Set the price of part _____ (pid) at supplier _____ (sid)");
             System.out.println("9. < EXIT");
+            System.out.println("10. Reload the price index after outside catalog changes");
 
             switch (readChoice()){
                case 0: QueryExample(esql); break;
@@ -187,7 +230,10 @@ public class EmbeddedSQL {
                case 4: Query4(esql); break;
                case 5: Query5(esql); break;
                case 6: Query6(esql); break;
+               case 7: CheapestSupplier(esql); break;
+               case 8: SetPrice(esql); break;
                case 9: keepon = false; break;
+               case 10: ReloadCatalog(esql); break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -249,39 +295,126 @@ public class EmbeddedSQL {
    }//end QueryExample
    
    public static void Query1(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         int rowCount = 0;
+         System.out.println("sid\tsname\tparts\t");
+         for (Map.Entry<Integer, Integer> e : esql.catalog().partCounts().entrySet()){
+            if (e.getValue() == 0) continue;
+            System.out.println(e.getKey() + "\t" + esql.catalog().supplierName(e.getKey()) + "\t" + e.getValue() + "\t");
+            ++rowCount;
+         }//end for
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query1
 
    public static void Query2(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         int rowCount = 0;
+         System.out.println("sid\tsname\tparts\t");
+         for (Map.Entry<Integer, Integer> e : esql.catalog().partCounts().entrySet()){
+            if (e.getValue() < 3) continue;
+            System.out.println(e.getKey() + "\t" + esql.catalog().supplierName(e.getKey()) + "\t" + e.getValue() + "\t");
+            ++rowCount;
+         }//end for
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query2
 
    public static void Query3(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         List<List<String>> rows = esql.catalog().suppliersOnlyOfColor("Green");
+         int rowCount = printRows(new String[]{"sname", "parts"}, rows);
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query3
 
    public static void Query4(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         List<List<String>> rows = esql.catalog().mostExpensiveOfSuppliersOfBoth("Green", "Red");
+         int rowCount = printRows(new String[]{"sname", "max_cost"}, rows);
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query4
 
    public static void Query5(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         System.out.print("\tEnter cost: $");
+         double cost = Double.parseDouble(in.readLine());
+
+         int rowCount = 0;
+         for (String pname : esql.catalog().partsCheaperThan(cost)){
+            if (rowCount == 0) System.out.println("pname\t");
+            System.out.println(pname + "\t");
+            ++rowCount;
+         }//end for
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query5
 
    public static void Query6(EmbeddedSQL esql){
-      // Your code goes here.
-      // ...
-      // ...
+      try{
+         System.out.print("\tEnter part name: ");
+         String pname = in.readLine();
+
+         List<List<String>> rows = esql.catalog().suppliersOfPart(pname);
+         int rowCount = printRows(new String[]{"sname", "address"}, rows);
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
    }//end Query6
 
+   public static void CheapestSupplier(EmbeddedSQL esql){
+      try{
+         System.out.print("\tEnter pid: ");
+         int pid = Integer.parseInt(in.readLine());
+
+         CatalogQueryService.Offer best = esql.catalog().cheapest(pid);
+         if (best == null){
+            System.out.println ("No supplier carries part " + pid);
+            return;
+         }//end if
+         System.out.println("pname\tsid\tsname\tcost\t");
+         System.out.println(esql.catalog().partName(pid) + "\t" + best.sid + "\t" +
+                            esql.catalog().supplierName(best.sid) + "\t" + best.cost + "\t");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end CheapestSupplier
+
+   public static void SetPrice(EmbeddedSQL esql){
+      try{
+         System.out.print("\tEnter pid: ");
+         int pid = Integer.parseInt(in.readLine());
+         System.out.print("\tEnter sid: ");
+         int sid = Integer.parseInt(in.readLine());
+         System.out.print("\tEnter cost: $");
+         double cost = Double.parseDouble(in.readLine());
+
+         esql.catalog().setPrice(sid, pid, cost);
+         System.out.println ("Price updated");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end SetPrice
+
+   public static void ReloadCatalog(EmbeddedSQL esql){
+      try{
+         esql.catalog().reload();
+         System.out.println ("Price index reloaded");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end ReloadCatalog
+
 }//end EmbeddedSQL
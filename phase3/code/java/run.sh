@@ -2,6 +2,9 @@
 DBNAME=$1
 PORT=$2
 USER=$3
+#optional: read-only replica port and the replica lag, in seconds, reports accept
+REPLICA_PORT=$4
+MAX_LAG=$5
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER $REPLICA_PORT $MAX_LAG
@@ -0,0 +1,362 @@
+/*
+ * Approximate Bill Summaries
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class keeps small, mergeable summaries of every closed request's bill
+ * so the bill reports can be answered without reading Closed_Request:
+ *
+ *  - a count-min sketch of the total bill per customer.  An estimate is never
+ *    below the true total and, with probability 1 - DELTA, at most
+ *    EPSILON * (sum of all bills) above it;
+ *  - a log-bucket histogram of bill amounts.  Every quantile is reported
+ *    within ALPHA relative error;
+ *  - a space-saving list of the CAPACITY biggest spenders.  Every customer
+ *    whose total is above (sum of all bills) / CAPACITY is on the list, and
+ *    a listed total is at most its stated error above the true total.
+ *
+ * The summaries are built from one streaming pass over Closed_Request and
+ * then updated with every closed request.  Summaries built on different
+ * shards can be merged.
+ *
+ */
+
+public class BillSketches{
+	public static final double EPSILON = 0.001;
+	public static final double DELTA = 0.01;
+	public static final double ALPHA = 0.01;
+	public static final int CAPACITY = 1000;
+
+	//rows fetched per round trip during the streaming pass
+	private static final int FETCH_SIZE = 10000;
+
+	/**
+	 * Count-min sketch over customer ids.  Every row hashes with its own
+	 * (a * key + b) mod PRIME, a and b drawn at random from [1, PRIME); the
+	 * seed is fixed so sketches built on different shards line up and can
+	 * be merged.
+	 */
+	static class CountMin{
+		private static final long PRIME = 2147483647L;
+		private static final long SEED = 166L;
+		private static final int WIDTH = (int) Math.ceil(Math.E / EPSILON);
+		private static final int DEPTH = (int) Math.ceil(Math.log(1.0 / DELTA));
+		private static final long[] A = new long[DEPTH];
+		private static final long[] B = new long[DEPTH];
+		static{
+			Random random = new Random(SEED);
+			for (int row = 0; row < DEPTH; ++row){
+				A[row] = 1 + random.nextInt((int) (PRIME - 1));
+				B[row] = 1 + random.nextInt((int) (PRIME - 1));
+			}
+		}
+
+		private final long[][] counts = new long[DEPTH][WIDTH];
+
+		//a and the key are below 2^31, so a * key + b fits in a long
+		private static int bucket(int row, int key){
+			return (int) (((A[row] * (key & 0x7fffffffL) + B[row]) % PRIME) % WIDTH);
+		}
+
+		void add(int key, long amount){
+			for (int row = 0; row < DEPTH; ++row)
+				counts[row][bucket(row, key)] += amount;
+		}
+
+		long estimate(int key){
+			long min = Long.MAX_VALUE;
+			for (int row = 0; row < DEPTH; ++row)
+				min = Math.min(min, counts[row][bucket(row, key)]);
+			return min;
+		}
+
+		void merge(CountMin other){
+			for (int row = 0; row < DEPTH; ++row)
+				for (int col = 0; col < WIDTH; ++col)
+					counts[row][col] += other.counts[row][col];
+		}
+	}//end CountMin
+
+	/**
+	 * Histogram with bucket i holding amounts in (GAMMA^(i-1), GAMMA^i], so
+	 * the midpoint of a bucket is within ALPHA of every amount in it.
+	 */
+	static class Quantiles{
+		private static final double GAMMA = (1 + ALPHA) / (1 - ALPHA);
+		private final TreeMap<Integer, Long> buckets = new TreeMap<Integer, Long>();
+		private long count = 0;
+
+		private static int index(double amount){
+			return (int) Math.ceil(Math.log(amount) / Math.log(GAMMA));
+		}
+
+		private static double value(int index){
+			return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+		}
+
+		void add(double amount){
+			int i = index(Math.max(1, amount));
+			Long seen = buckets.get(i);
+			buckets.put(i, seen == null ? 1 : seen + 1);
+			++count;
+		}
+
+		double quantile(double q){
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (Map.Entry<Integer, Long> e : buckets.entrySet()){
+				seen += e.getValue();
+				if (seen >= rank) return value(e.getKey());
+			}
+			return buckets.isEmpty() ? 0 : value(buckets.lastKey());
+		}
+
+		/**
+		 * Returns {certainly below, possibly below}: amounts in the bucket
+		 * holding the limit may fall on either side of it.
+		 */
+		long[] countBelow(double limit){
+			int edge = index(limit);
+			long below = 0;
+			long maybe = 0;
+			for (Map.Entry<Integer, Long> e : buckets.entrySet()){
+				if (e.getKey() < edge) below += e.getValue();
+				else if (e.getKey() == edge) maybe += e.getValue();
+			}
+			return new long[]{below, below + maybe};
+		}
+
+		void merge(Quantiles other){
+			for (Map.Entry<Integer, Long> e : other.buckets.entrySet()){
+				Long seen = buckets.get(e.getKey());
+				buckets.put(e.getKey(), seen == null ? e.getValue() : seen + e.getValue());
+			}
+			count += other.count;
+		}
+	}//end Quantiles
+
+	/**
+	 * A customer tracked by the space-saving list.  The true total lies in
+	 * [total - error, total].
+	 */
+	public static class Spender implements Comparable<Spender>{
+		public final int customerId;
+		public long total;
+		public long error;
+
+		Spender(int customerId, long total, long error){
+			this.customerId = customerId;
+			this.total = total;
+			this.error = error;
+		}
+
+		public int compareTo(Spender other){
+			if (total != other.total) return total < other.total ? -1 : 1;
+			return customerId - other.customerId;
+		}
+	}//end Spender
+
+	/**
+	 * Space-saving heavy hitters weighted by bill.  When the list is full a
+	 * new customer replaces the smallest one and inherits its total as error.
+	 */
+	static class HeavyHitters{
+		private final Map<Integer, Spender> byCustomer = new HashMap<Integer, Spender>();
+		private final TreeSet<Spender> byTotal = new TreeSet<Spender>();
+
+		void add(int customerId, long amount){
+			Spender s = byCustomer.get(customerId);
+			if (s == null && byCustomer.size() >= CAPACITY){
+				Spender smallest = byTotal.pollFirst();
+				byCustomer.remove(smallest.customerId);
+				s = new Spender(customerId, smallest.total, smallest.total);
+			}else if (s == null){
+				s = new Spender(customerId, 0, 0);
+			}else{
+				byTotal.remove(s);
+			}
+			s.total += amount;
+			byCustomer.put(customerId, s);
+			byTotal.add(s);
+		}
+
+		private long floor(){
+			return byCustomer.size() < CAPACITY ? 0 : byTotal.first().total;
+		}
+
+		/**
+		 * Combines two lists.  A customer missing from one list may still
+		 * have spent up to that list's smallest total there.
+		 */
+		void merge(HeavyHitters other){
+			long mine = floor();
+			long theirs = other.floor();
+			Map<Integer, Spender> merged = new HashMap<Integer, Spender>();
+			for (Spender s : byCustomer.values()){
+				Spender o = other.byCustomer.get(s.customerId);
+				merged.put(s.customerId, o == null ? new Spender(s.customerId, s.total + theirs, s.error + theirs)
+				                                   : new Spender(s.customerId, s.total + o.total, s.error + o.error));
+			}
+			for (Spender o : other.byCustomer.values())
+				if (!merged.containsKey(o.customerId))
+					merged.put(o.customerId, new Spender(o.customerId, o.total + mine, o.error + mine));
+
+			byCustomer.clear();
+			byTotal.clear();
+			byTotal.addAll(merged.values());
+			while (byTotal.size() > CAPACITY)
+				byTotal.pollFirst();
+			for (Spender s : byTotal)
+				byCustomer.put(s.customerId, s);
+		}
+
+		List<Spender> top(int k){
+			List<Spender> result = new ArrayList<Spender>();
+			for (Spender s : byTotal.descendingSet()){
+				if (result.size() == k) break;
+				result.add(s);
+			}
+			return result;
+		}
+	}//end HeavyHitters
+
+	private CountMin _totals = new CountMin();
+	private Quantiles _bills = new Quantiles();
+	private HeavyHitters _spenders = new HeavyHitters();
+	private long _billSum = 0;
+
+	/**
+	 * Method to build the summaries with one pass over Closed_Request.  The
+	 * rows are read through a cursor so memory use does not grow with the
+	 * table.
+	 *
+	 * @param connection the database to read
+	 * @return the summaries of every closed request on that database
+	 * @throws java.sql.SQLException when failed to read the bills
+	 */
+	public static BillSketches build(Connection connection) throws SQLException {
+		BillSketches sketches = new BillSketches();
+		boolean autoCommit = connection.getAutoCommit();
+		//the driver only streams with a cursor inside a transaction
+		connection.setAutoCommit(false);
+		Statement stmt = connection.createStatement ();
+		try{
+			stmt.setFetchSize(FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery (
+				"SELECT Service_Request.customer_id, Closed_Request.bill FROM Closed_Request, Service_Request " +
+				"WHERE Closed_Request.rid = Service_Request.rid");
+			while (rs.next())
+				sketches.add(rs.getInt(1), rs.getLong(2));
+			connection.commit();
+		}finally{
+			stmt.close ();
+			connection.setAutoCommit(autoCommit);
+		}
+		return sketches;
+	}//end build
+
+	/**
+	 * Method to account for one closed request.
+	 *
+	 * @param customerId the customer billed
+	 * @param bill the amount billed
+	 */
+	public void add(int customerId, long bill){
+		_totals.add(customerId, bill);
+		_bills.add(bill);
+		_spenders.add(customerId, bill);
+		_billSum += bill;
+	}
+
+	/**
+	 * Method to fold the summaries of another database into these.
+	 */
+	public void merge(BillSketches other){
+		_totals.merge(other._totals);
+		_bills.merge(other._bills);
+		_spenders.merge(other._spenders);
+		_billSum += other._billSum;
+	}
+
+	/**
+	 * Returns the number of closed requests summarized.
+	 */
+	public long count(){
+		return _bills.count;
+	}
+
+	/**
+	 * Returns the sum of every bill summarized.
+	 */
+	public long billSum(){
+		return _billSum;
+	}
+
+	/**
+	 * Returns an upper estimate of a customer's total bill; it is at most
+	 * totalError() too high with probability 1 - DELTA.
+	 */
+	public long estimateTotal(int customerId){
+		return _totals.estimate(customerId);
+	}
+
+	public long totalError(){
+		return (long) Math.ceil(EPSILON * _billSum);
+	}
+
+	/**
+	 * Returns the bill amount at quantile q (0 to 1), within ALPHA.
+	 */
+	public double billQuantile(double q){
+		return _bills.quantile(q);
+	}
+
+	/**
+	 * Returns {at least, at most} the number of closed requests billed below
+	 * the limit.
+	 */
+	public long[] countBillsBelow(double limit){
+		return _bills.countBelow(limit);
+	}
+
+	/**
+	 * Returns the k biggest spenders, largest first.  Each total is also
+	 * capped by the count-min estimate, which is an upper bound as well, and
+	 * the list is ranked by the capped totals.
+	 */
+	public List<Spender> topSpenders(int k){
+		TreeSet<Spender> capped = new TreeSet<Spender>();
+		for (Spender s : _spenders.top(CAPACITY)){
+			long atLeast = Math.max(0, s.total - s.error);
+			long total = Math.max(atLeast, Math.min(s.total, _totals.estimate(s.customerId)));
+			capped.add(new Spender(s.customerId, total, total - atLeast));
+		}
+		List<Spender> top = new ArrayList<Spender>();
+		for (Spender s : capped.descendingSet()){
+			if (top.size() == k) break;
+			top.add(s);
+		}
+		return top;
+	}
+}
@@ -23,6 +23,8 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,6 +35,19 @@ import java.util.ArrayList;
 public class MechanicShop{
 	//reference to physical database connection
 	private Connection _connection = null;
+	//when set, every report is also run under EXPLAIN ANALYZE
+	private PlanProfiler _profiler = null;
+	//set when the shop is spread over several databases, see ShardRouter
+	private ShardRouter _router = null;
+	//read-only replica the List* reports run on, null when they use the primary
+	private MechanicShop _replica = null;
+	//seconds the replica may lag behind before reports fall back to the primary
+	private double _maxStaleness = 5.0;
+	//set by writes on this connection until the replica is known to have them
+	private boolean _unreplicatedWrites = false;
+	private String _writeLsn = null;
+	//bill summaries for the approximate reports, built on first use
+	private BillSketches _billSketches = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -65,6 +80,7 @@ public class MechanicShop{
 
 		// issues the update instruction
 		stmt.executeUpdate (sql);
+		this._unreplicatedWrites = true;
 
 		// close the instruction
 	    stmt.close ();
@@ -193,10 +209,299 @@ public class MechanicShop{
 		return -1;
 	}
 
+	/**
+	 * Returns every shard of the shop, or only this instance when the shop
+	 * runs on a single database.
+	 */
+	public List<MechanicShop> shards(){
+		if (this._router == null){
+			List<MechanicShop> self = new ArrayList<MechanicShop>();
+			self.add(this);
+			return self;
+		}
+		return this._router.shards();
+	}
+
+	/**
+	 * Returns the shard holding a customer's Owns, Service_Request and
+	 * Closed_Request rows.
+	 * 
+	 * @param customerId the Customer.id
+	 */
+	public MechanicShop forCustomer(int customerId){
+		return (this._router == null) ? this : this._router.shardFor(customerId);
+	}
+
+	/**
+	 * Returns the shard holding a service request, or this instance when no
+	 * shard has it.
+	 * 
+	 * @param rid the Service_Request.rid
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public MechanicShop forServiceRequest(int rid) throws SQLException {
+		String query = String.format("SELECT rid FROM Service_Request WHERE rid = %d", rid);
+		for (MechanicShop shard : shards())
+			if (shard.executeQuery(query) > 0) return shard;
+		return this;
+	}
+
+	/**
+	 * Method to execute a query on every shard and return all the records,
+	 * see executeQueryAndReturnResult.
+	 * 
+	 * @param query the input query string
+	 * @return the records of all shards
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryOnAllShards(String query) throws SQLException {
+		if (this._router == null) return executeQueryAndReturnResult(query);
+		return this._router.gather(query);
+	}
+
+	/**
+	 * Method to execute an update on every shard.  Used for Mechanic and Car,
+	 * which every shard keeps a full copy of.
+	 * 
+	 * @param sql the input SQL string
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public void executeUpdateOnAllShards(String sql) throws SQLException {
+		if (this._router == null) executeUpdate(sql);
+		else this._router.executeUpdateOnAll(sql);
+	}
+
+	/**
+	 * Method to run an update as the first phase of a two-phase commit: the
+	 * update is prepared under the given transaction id but not committed.
+	 * Nothing is left behind when the update or the prepare fails.
+	 * 
+	 * @param sql the input SQL string
+	 * @param gid the prepared transaction id, see finishPrepared
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public void prepareUpdate(String sql, String gid) throws SQLException {
+		this._connection.setAutoCommit(false);
+		Statement stmt = this._connection.createStatement ();
+		try{
+			stmt.executeUpdate (sql);
+			stmt.execute ("PREPARE TRANSACTION '" + gid + "'");
+		}catch (SQLException e){
+			this._connection.rollback();
+			throw e;
+		}finally{
+			stmt.close ();
+			this._connection.setAutoCommit(true);
+		}//end try
+		this._unreplicatedWrites = true;
+	}//end prepareUpdate
+
+	/**
+	 * Method to commit or roll back a transaction left by prepareUpdate.
+	 * 
+	 * @param gid the prepared transaction id
+	 * @param commit true to commit, false to roll back
+	 * @throws java.sql.SQLException when failed to finish the transaction
+	 */
+	public void finishPrepared(String gid, boolean commit) throws SQLException {
+		executeUpdate ((commit ? "COMMIT" : "ROLLBACK") + " PREPARED '" + gid + "'");
+	}
+
+	/**
+	 * Method to print records in the same layout as
+	 * executeQueryAndPrintResult, for results merged from several shards.
+	 * 
+	 * @param header the column names
+	 * @param rows the records
+	 * @return the number of rows printed
+	 */
+	public static int printResult(String[] header, List<List<String>> rows){
+		if (rows.isEmpty()) return 0;
+		for (String column : header)
+			System.out.print(column + "\t");
+		System.out.println();
+		for (List<String> row : rows){
+			for (String value : row)
+				System.out.print(value + "\t");
+			System.out.println();
+		}
+		return rows.size();
+	}
+
+	/**
+	 * Method to insert a service request and record it in the Car_Mileage
+	 * summary in one transaction, so the summary never misses a request.
+	 * The request is assumed to be the car's most recent one, which holds
+	 * for requests opened today.
+	 * 
+	 * @param sql the INSERT INTO Service_Request statement
+	 * @param vin the serviced car
+	 * @param odometer the odometer reading of the request
+	 * @throws java.sql.SQLException when either write failed; nothing is kept
+	 */
+	public void insertServiceRequest(String sql, String vin, int odometer) throws SQLException {
+		boolean autoCommit = this._connection.getAutoCommit();
+		this._connection.setAutoCommit(false);
+		Statement stmt = this._connection.createStatement ();
+		try{
+			stmt.executeUpdate (sql);
+			//one upsert, so two first requests for the same car cannot both try to insert its row
+			stmt.executeUpdate (String.format(
+				"INSERT INTO Car_Mileage(car_vin, year, latest_odometer, max_odometer, last_service, num_requests) SELECT vin, year, %d, %d, CURRENT_DATE, 1 FROM Car WHERE vin = '%s' " +
+				"ON CONFLICT (car_vin) DO UPDATE SET latest_odometer = EXCLUDED.latest_odometer, max_odometer = GREATEST(Car_Mileage.max_odometer, EXCLUDED.max_odometer), " +
+				"last_service = CURRENT_DATE, num_requests = Car_Mileage.num_requests + 1",
+				odometer, odometer, vin));
+			this._connection.commit();
+			this._unreplicatedWrites = true;
+		}catch (SQLException e){
+			this._connection.rollback();
+			throw e;
+		}finally{
+			stmt.close ();
+			this._connection.setAutoCommit(autoCommit);
+		}//end try
+	}//end insertServiceRequest
+
+	/**
+	 * Returns the instance the List* reports should read from: the replica
+	 * when it is within the staleness bound and has replayed every write
+	 * made through this instance, otherwise this instance (the primary).
+	 * Every call asks the primary for its current WAL position; a replica
+	 * that has replayed up to it is current no matter how long ago the last
+	 * transaction was.
+	 */
+	public MechanicShop forReports(){
+		if (this._replica == null) return this;
+		try{
+			Statement stmt = this._connection.createStatement ();
+			ResultSet rs = stmt.executeQuery ("SELECT pg_current_wal_lsn()");
+			rs.next();
+			String primaryLsn = rs.getString(1);
+			stmt.close ();
+			if (this._unreplicatedWrites){
+				//the primary's current WAL position covers every write made so far
+				this._writeLsn = primaryLsn;
+				this._unreplicatedWrites = false;
+			}
+
+			//replay positions are NULL when the server is not a replica, which counts as behind
+			String query = String.format(
+				"SELECT COALESCE(pg_last_wal_replay_lsn() >= '%s'::pg_lsn, false), %s, " +
+				"EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())",
+				primaryLsn,
+				this._writeLsn == null ? "true" : "COALESCE(pg_last_wal_replay_lsn() >= '" + this._writeLsn + "'::pg_lsn, false)");
+			List<String> status = this._replica.executeQueryAndReturnResult(query).get(0);
+			boolean current = "t".equals(status.get(0)) || "true".equals(status.get(0));
+			boolean caughtUp = "t".equals(status.get(1)) || "true".equals(status.get(1));
+
+			if (!current){
+				//behind the primary: the replay time of the last transaction tells how far
+				if (status.get(2) == null){
+					System.out.println("Replica has not replayed any transaction yet, using the primary");
+					return this;
+				}
+				double lag = Double.parseDouble(status.get(2));
+				if (lag > this._maxStaleness){
+					System.out.println(String.format("Replica is %.1f seconds behind, using the primary", lag));
+					return this;
+				}
+				if (!caughtUp){
+					System.out.println("Replica has not replayed your latest changes yet, using the primary");
+					return this;
+				}
+			}
+			this._writeLsn = null;
+			return this._replica;
+		}catch (SQLException e){
+			System.err.println("Replica unavailable, using the primary: " + e.getMessage());
+			return this;
+		}
+	}//end forReports
+
+	/**
+	 * Returns the bill summaries, building them on first use with one pass
+	 * over Closed_Request of every shard (or of the report replica).
+	 * 
+	 * @throws java.sql.SQLException when failed to read the bills
+	 */
+	public BillSketches billSketches() throws SQLException {
+		if (this._billSketches == null){
+			BillSketches sketches = new BillSketches();
+			if (this._router == null){
+				sketches = BillSketches.build(forReports()._connection);
+			}else{
+				for (MechanicShop shard : shards())
+					sketches.merge(BillSketches.build(shard._connection));
+			}
+			this._billSketches = sketches;
+		}
+		return this._billSketches;
+	}//end billSketches
+
+	/**
+	 * Method to add a newly closed request to the bill summaries, if they
+	 * have been built.
+	 * 
+	 * @param home the shard holding the request
+	 * @param rid the closed Service_Request.rid
+	 * @param bill the amount billed
+	 * @throws java.sql.SQLException when failed to look up the customer
+	 */
+	public void recordClosedBill(MechanicShop home, int rid, long bill) throws SQLException {
+		if (this._billSketches == null) return;
+		List<List<String>> owner = home.executeQueryAndReturnResult(String.format("SELECT customer_id FROM Service_Request WHERE rid = %d", rid));
+		if (!owner.isEmpty())
+			this._billSketches.add(Integer.parseInt(owner.get(0).get(0).trim()), bill);
+	}//end recordClosedBill
+
+	/**
+	 * Method to turn report profiling on or off.  While profiling is on,
+	 * each report query is first run under EXPLAIN ANALYZE and its plan is
+	 * stored in the plans directory.  With shards, every shard runs the
+	 * query and keeps its plans in plans/shard<i>.
+	 * 
+	 * @return true if profiling is now on
+	 */
+	public boolean toggleProfiling(){
+		boolean on = (this._profiler == null);
+		this._profiler = on ? new PlanProfiler("plans") : null;
+		if (this._replica != null) this._replica._profiler = this._profiler;
+		if (this._router != null){
+			List<MechanicShop> shards = this._router.shards();
+			for (int i = 0; i < shards.size(); ++i)
+				shards.get(i)._profiler = on ? new PlanProfiler("plans/shard" + i) : null;
+		}
+		return on;
+	}
+
+	/**
+	 * Method to profile a report query when profiling is on.  Profiling
+	 * problems are printed and never stop the report itself.
+	 * 
+	 * @param report the name of the report
+	 * @param query the query string each shard runs for the report
+	 */
+	public void profileReport(String report, String query){
+		if (this._profiler == null) return;
+		for (MechanicShop shard : shards()){
+			try{
+				shard._profiler.profile(shard._connection, report, query);
+			}catch (SQLException e){
+				System.err.println("Unable to profile " + report + ": " + e.getMessage());
+			}
+		}
+	}//end profileReport
+
 	/**
 	 * Method to close the physical connection if it is open.
 	 */
 	public void cleanup(){
+		if (this._router != null){
+			this._router.cleanup();
+		}//end if
+		if (this._replica != null){
+			this._replica.cleanup();
+		}//end if
 		try{
 			if (this._connection != null){
 				this._connection.close ();
@@ -212,10 +517,10 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3 || args.length > 5) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port>[,<port>...] <user> [<replica port> [<max replica lag in seconds>]]");
 			return;
 		}//end if
 		
@@ -238,7 +543,27 @@ public class MechanicShop{
 			String dbport = args[1];
 			String user = args[2];
 			
-			esql = new MechanicShop (dbname, dbport, user, "");
+			//several ports spread the customers over one database per port
+			String[] ports = dbport.split(",");
+			esql = new MechanicShop (dbname, ports[0], user, "");
+			if (ports.length > 1){
+				List<MechanicShop> shards = new ArrayList<MechanicShop>();
+				shards.add(esql);
+				for (int i = 1; i < ports.length; ++i)
+					shards.add(new MechanicShop (dbname, ports[i], user, ""));
+				esql._router = new ShardRouter(shards);
+			}
+
+			//reports go to a streaming replica of the primary when one is given
+			if (args.length > 3){
+				if (esql._router != null){
+					System.out.println("A replica cannot be combined with shards, reports will run on the shards");
+				}else{
+					esql._replica = new MechanicShop (dbname, args[3], user, "");
+					esql._replica._connection.setReadOnly(true);
+					if (args.length > 4) esql._maxStaleness = Double.parseDouble(args[4]);
+				}
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -254,7 +579,11 @@ public class MechanicShop{
 				System.out.println("8. ListCarsBefore1995With50000Milles");
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
+				System.out.println("11. ToggleReportProfiling");
+				System.out.println("12. DispatchOpenServiceRequests");
+				System.out.println("13. ApproximateBillReports");
+				System.out.println("14. BenchmarkApproximateBillReports");
+				System.out.println("15. < EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -270,7 +599,11 @@ public class MechanicShop{
 					case 8: ListCarsBefore1995With50000Milles(esql); break;
 					case 9: ListKCarsWithTheMostServices(esql); break;
 					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+					case 11: ToggleReportProfiling(esql); break;
+					case 12: DispatchOpenServiceRequests(esql); break;
+					case 13: ApproximateBillReports(esql); break;
+					case 14: BenchmarkApproximateBillReports(esql); break;
+					case 15: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -307,7 +640,7 @@ public class MechanicShop{
 	public static void AddCustomer(MechanicShop esql){
 		try{
 			String querySize = String.format("SELECT id FROM Customer");
-			List<List<String>> data = esql.executeQueryAndReturnResult(querySize);
+			List<List<String>> data = esql.executeQueryOnAllShards(querySize);
 			int newCustomerID = data.size() + 1;
 			System.out.print("Enter new customer's first name: "); String customerFName = in.readLine();
 			System.out.print("Enter new customer's last name: "); String customerLName = in.readLine();
@@ -315,7 +648,7 @@ public class MechanicShop{
 	        System.out.print("Enter new customer's address: "); String customerAddress = in.readLine();
 
             String query = String.format("INSERT INTO Customer(id, fname, lname, phone, address) VALUES(%d, '%s', '%s', '%s', '%s')", newCustomerID,customerFName,customerLName,customerPhone,customerAddress);
-            esql.executeUpdate(query);
+            esql.forCustomer(newCustomerID).executeUpdate(query);
 
       		}catch(Exception e){ System.err.println (e.getMessage()); }
 	} 
@@ -332,7 +665,7 @@ public class MechanicShop{
             int yearsExperience = Integer.parseInt(yearsExperienceString);
 
 			String query = String.format("INSERT INTO mechanic(id, fname, lname, experience) VALUES(%d, '%s', '%s', %d)", newmechID, mechanicFName, mechanicLName, yearsExperience);
-            esql.executeUpdate(query);
+            esql.executeUpdateOnAllShards(query);
               
             }catch(Exception e){ System.err.println (e.getMessage()); }
 	}
@@ -346,7 +679,7 @@ public class MechanicShop{
 			int carAge = Integer.parseInt(carAgeString);
 
 			String query = String.format("INSERT INTO Car(vin, make, model, year) VALUES('%s', '%s', '%s', %d)", newCarVin, carMake, carModel, carAge);
-            esql.executeUpdate(query);
+            esql.executeUpdateOnAllShards(query);
 
       		}catch(Exception e){ System.err.println (e.getMessage()); }
 	}
@@ -354,13 +687,15 @@ public class MechanicShop{
 public static void InsertServiceRequest(MechanicShop esql){
 		try{
 			String querySize = String.format("SELECT rid FROM Service_Request");
-			List<List<String>> ledgerOfServiceRequests = esql.executeQueryAndReturnResult(querySize);
+			List<List<String>> ledgerOfServiceRequests = esql.executeQueryOnAllShards(querySize);
 			int newServiceRequest = ledgerOfServiceRequests.size() + 1;
 
             System.out.print("What is the Customer's Last name?: ") String findCustomerLastName = in.readLine();
              
 			String query = String.format("SELECT * FROM Customer WHERE lname = '%s'", findCustomerLastName);
-			int numOfCustomerRequests = esql.executeQueryAndPrintResult(query);
+			int numOfCustomerRequests = 0;
+			for (MechanicShop shard : esql.shards())
+				numOfCustomerRequests += shard.executeQueryAndPrintResult(query);
 
 			if(!numOfCustomerRequests) {
 				System.out.println("Hmmm, that last name does not belong to a current member, would they like to create a Membership? : ");
@@ -373,8 +708,9 @@ public static void InsertServiceRequest(MechanicShop esql){
 			else {
 				System.out.println("Enter the Member's ID number : "); String currentCustomerIDString = in.readLine();
 				int currentCustomerID = Integer.parseInt(currentCustomerIDString);
+				MechanicShop home = esql.forCustomer(currentCustomerID);
 				query = String.format("SELECT Row_Number() OVER ( ORDER BY Owns.car_vin ), Car FROM Customer,Owns,Car WHERE Customer.id = Owns.customer_id AND Car.vin = Owns.car_vin AND Owns.customer_id = '%s'", currentCustomerID);
-				numOfCustomerRequests = esql.executeQueryAndPrintResult(query);
+				numOfCustomerRequests = home.executeQueryAndPrintResult(query);
 				System.out.println("Which Member do you have in mind? : ");
 				String whichCustomerString = in.readLine();
 				int whichCustomer = Integer.parseInt(whichCustomerString);
@@ -387,13 +723,13 @@ public static void InsertServiceRequest(MechanicShop esql){
 					int newCarAge = Integer.parseInt(newCarAgeString);
 
 					query = String.format("INSERT INTO Car(vin, make, model, year) VALUES('%s', '%s', '%s', %d)", newCarVin, newCarMake, newCarModel, newCarAge);
-					esql.executeUpdate(query);
+					esql.executeUpdateOnAllShards(query);
 					
 					querySize = String.format("SELECT ownership_id FROM Owns");
-					List<List<String>> numCarsOwned = esql.executeQueryAndReturnResult(querySize);
+					List<List<String>> numCarsOwned = esql.executeQueryOnAllShards(querySize);
 					int newCarOwnedID = numCarsOwned.size() + 1;
 					query = String.format("INSERT INTO Owns(ownership_id, customer_id, car_vin) VALUES(%d, %d, '%s')", newCarOwnedID, currentCustomerID, newCarVin);
-					esql.executeUpdate(query);
+					home.executeUpdate(query);
 					System.out.print("This member's new car has been added to the database!\n");
 
 					System.out.print("Please Enter the current mileage of the new car: "); String newCarMileageString = in.readLine();
@@ -402,7 +738,7 @@ public static void InsertServiceRequest(MechanicShop esql){
 					System.out.print("If the customer had any complaints about today's service, please describe here: "); String newServiceComplaint = in.readLine();
 					
 					query = String.format("INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES(%d, %d, '%s', CURRENT_DATE, %d, '%s')", newServiceRequest, currentCustomerID, newCarVin, newCarMileage, newServiceComplaint);
-					esql.executeUpdate(query);
+					home.insertServiceRequest(query, newCarVin, newCarMileage);
 					System.out.print("This service request identification number will be given shortly. Thank you. : ");
 					System.out.print(newServiceRequest);
 					System.out.printf("%n"); 
@@ -410,7 +746,7 @@ public static void InsertServiceRequest(MechanicShop esql){
 				else {
 
 					query = String.format("SELECT test FROM (Select Row_Number() OVER ( ORDER BY Owns.car_vin ) as rownumber, Car.vin, Car.make, Car.model, Car.year FROM Customer, Owns, Car WHERE Customer.id = Owns.customer_id AND Car.vin = Owns.car_vin AND Owns.customer_id = '%s') AS test WHERE rownumber = %d ", currentCustomerID, whichCustomer);
-					List<List<String>> thisCustomersCars  = esql.executeQueryAndReturnResult(query);
+					List<List<String>> thisCustomersCars  = home.executeQueryAndReturnResult(query);
 					
 					String newCustomerCar = result.get(0).get(0);
 					System.out.println(newCustomerCar);
@@ -423,7 +759,7 @@ public static void InsertServiceRequest(MechanicShop esql){
 					System.out.print("If the customer had any complaints about today's service, please describe here: "); String newServiceComplaint2 = in.readLine();
 
 					query = String.format("INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES(%d, %d, '%s', CURRENT_DATE, %d, '%s')", newServiceRequest, currentCustomerID, newCarVin2, newCarMileage2, newServiceComplaint2);
-					esql.executeUpdate(query);
+					home.insertServiceRequest(query, newCarVin2, newCarMileage2);
 					System.out.print("This service request identification number will be given shortly. Thank you. : ");
 					System.out.print(newServiceRequest);
 					System.out.printf("%n"); 
@@ -439,7 +775,7 @@ public static void InsertServiceRequest(MechanicShop esql){
 public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 	try{
 			String numClosedString = String.format("SELECT wid FROM Closed_Request");
-			List<List<String>> numRequests = esql.executeQueryAndReturnResult(querySize);
+			List<List<String>> numRequests = esql.executeQueryOnAllShards(numClosedString);
 			int newClosedRequestID = numRequests.size() + 1;
 
          	System.out.println("Please Enter the the Service Request ID for this Member's Car: "); String lookupRequestIDString = in.readLine();
@@ -460,8 +796,9 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 				return;
 			}
 			
+			MechanicShop home = esql.forServiceRequest(lookupRequestID);
 			query = String.format("SELECT * FROM Service_Request WHERE Service_Request.rid = %d", lookupRequestID);
-			numRows = esql.executeQuery(query);
+			numRows = home.executeQuery(query);
 
 			if(!numRows) {
 				System.out.println("Please Enter a valid Service Request Identification Number: \n");
@@ -469,7 +806,7 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 			}
 
 			query = String.format("SELECT * FROM Service_Request WHERE Service_Request.rid = %d AND Service_Request.date <= CURRENT_DATE", lookupRequestID);
-			numRows = esql.executeQuery(query);
+			numRows = home.executeQuery(query);
 
 			if(!numRows) {
 				System.out.println("Please enter a valid service request date: \n");
@@ -478,16 +815,138 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 
 			query = String.format("INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES(%d, %d, %d, CURRENT_DATE, '%s', %d)", 
 										newClosedRequestID, lookupRequestID, mechID, newComment, newServiceCost);
-			esql.executeUpdate(query);
+			home.executeUpdate(query);
+			esql.recordClosedBill(home, lookupRequestID, newServiceCost);
 
       		}catch(Exception e){ System.err.println (e.getMessage()); }
     }
 	
+	public static void ToggleReportProfiling(MechanicShop esql){
+		boolean on = esql.toggleProfiling();
+		System.out.println("Report profiling is now " + (on ? "ON, plans are stored in ./plans" : "OFF"));
+	}
+	
+	public static void DispatchOpenServiceRequests(MechanicShop esql){
+		try{
+			//one scheduler over all shards, so mechanics are balanced across the whole shop
+			List<Connection> shards = new ArrayList<Connection>();
+			for (MechanicShop shard : esql.shards())
+				shards.add(shard._connection);
+			ServiceScheduler scheduler = new ServiceScheduler(shards);
+			scheduler.load();
+			System.out.println("Open service requests waiting for a mechanic: " + scheduler.queueDepth());
+			if (scheduler.queueDepth() == 0) return;
+
+			System.out.print("How many requests should be assigned? (0 for all): "); String limitString = in.readLine();
+			int limit = Integer.parseInt(limitString);
+
+			long start = System.nanoTime();
+			int assigned = scheduler.dispatch(limit);
+			long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+			esql._unreplicatedWrites = true;
+			System.out.println("Requests assigned: " + assigned + " in " + ms + " ms (" + (assigned * 1000L / ms) + " per second)");
+			System.out.println("Requests still waiting: " + scheduler.queueDepth());
+
+		}catch(Exception e){ System.err.println (e.getMessage()); }
+	}
+	
+	public static void ApproximateBillReports(MechanicShop esql){
+		try{
+			BillSketches sketches = esql.billSketches();
+			System.out.println("Closed requests summarized: " + sketches.count());
+
+			long[] below100 = sketches.countBillsBelow(100);
+			System.out.println("Closed requests billed less than $100: between " + below100[0] + " and " + below100[1]);
+			System.out.println(String.format("Bills (within %.0f%%): median $%.0f, 90th percentile $%.0f, 99th percentile $%.0f",
+				BillSketches.ALPHA * 100, sketches.billQuantile(0.5), sketches.billQuantile(0.9), sketches.billQuantile(0.99)));
+
+			System.out.print("How many top spenders would you like listed?: "); String numSpendersString = in.readLine();
+			int numSpenders = Integer.parseInt(numSpendersString);
+			List<BillSketches.Spender> top = sketches.topSpenders(numSpenders);
+			if (!top.isEmpty()){
+				StringBuilder ids = new StringBuilder();
+				for (BillSketches.Spender spender : top)
+					ids.append(ids.length() == 0 ? "" : ",").append(spender.customerId);
+				Map<String, String> names = new HashMap<String, String>();
+				for (List<String> row : esql.executeQueryOnAllShards("SELECT id, fname, lname FROM Customer WHERE id IN (" + ids + ")"))
+					names.put(row.get(0).trim(), row.get(1).trim() + "\t" + row.get(2).trim());
+
+				List<List<String>> rows = new ArrayList<List<String>>();
+				for (BillSketches.Spender spender : top){
+					List<String> row = new ArrayList<String>();
+					String name = names.get(Integer.toString(spender.customerId));
+					row.add(name == null ? "?\t?" : name);
+					row.add(Long.toString(spender.total - spender.error));
+					row.add(Long.toString(spender.total));
+					rows.add(row);
+				}
+				printResult(new String[]{"fname", "lname", "total_bill_at_least", "total_bill_at_most"}, rows);
+			}
+
+			System.out.print("Enter a customer ID to estimate their total bill (blank to skip): "); String customerIDString = in.readLine();
+			if (customerIDString.trim().length() > 0){
+				int customerID = Integer.parseInt(customerIDString.trim());
+				long estimate = sketches.estimateTotal(customerID);
+				System.out.println(String.format("Total bill of customer %d: between $%d and $%d (%.0f%% sure)",
+					customerID, Math.max(0, estimate - sketches.totalError()), estimate, (1 - BillSketches.DELTA) * 100));
+			}
+
+		}catch(Exception e){ System.err.println (e.getMessage()); }
+	}
+
+	public static void BenchmarkApproximateBillReports(MechanicShop esql){
+		try{
+			long start = System.nanoTime();
+			esql._billSketches = null;
+			BillSketches sketches = esql.billSketches();
+			long buildMs = (System.nanoTime() - start) / 1000000;
+
+			//exact answers, the way the List* reports compute them
+			String lessThan100 = "SELECT Customer.fname, Customer.lname, Closed_Request.bill, Service_Request.date, Closed_Request.comment FROM Customer, Closed_Request, Service_Request " +
+				"WHERE Closed_Request.bill < 100 AND Closed_Request.rid = Service_Request.rid AND Service_Request.customer_id = Customer.id";
+			String totals = "SELECT Service_Request.customer_id, SUM(Closed_Request.bill) total_bill FROM Closed_Request, Service_Request " +
+				"WHERE Closed_Request.rid = Service_Request.rid GROUP BY Service_Request.customer_id ORDER BY total_bill DESC";
+			MechanicShop reader = esql.forReports();
+			start = System.nanoTime();
+			int exactBelow100 = (esql._router == null) ? reader.executeQueryAndReturnResult(lessThan100).size() : esql.executeQueryOnAllShards(lessThan100).size();
+			List<List<String>> exactTop = ShardRouter.topK((esql._router == null) ? reader.executeQueryAndReturnResult(totals) : esql.executeQueryOnAllShards(totals), 1, 10);
+			long exactUs = (System.nanoTime() - start) / 1000;
+
+			start = System.nanoTime();
+			long[] approxBelow100 = sketches.countBillsBelow(100);
+			List<BillSketches.Spender> approxTop = sketches.topSpenders(10);
+			long approxUs = (System.nanoTime() - start) / 1000;
+
+			int found = 0;
+			double worstError = 0;
+			for (List<String> row : exactTop){
+				int customerID = Integer.parseInt(row.get(0).trim());
+				long exact = Long.parseLong(row.get(1).trim());
+				worstError = Math.max(worstError, (double) (sketches.estimateTotal(customerID) - exact) / exact);
+				for (BillSketches.Spender spender : approxTop)
+					if (spender.customerId == customerID) ++found;
+			}
+
+			System.out.println("Sketches built from " + sketches.count() + " closed requests in " + buildMs + " ms");
+			System.out.println("Exact queries: " + exactUs + " us, approximate answers: " + approxUs + " us");
+			System.out.println("Bills below $100: exact " + exactBelow100 + ", approximate between " + approxBelow100[0] + " and " + approxBelow100[1]);
+			System.out.println("Top 10 spenders found by the sketch: " + found + " of " + exactTop.size());
+			System.out.println(String.format("Worst count-min overestimate among them: %.2f%% (bound %.2f%% of all billing, $%d)",
+				worstError * 100, BillSketches.EPSILON * 100, sketches.totalError()));
+
+		}catch(Exception e){ System.err.println (e.getMessage()); }
+	}
+	
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){
 		try{
-				 String query = "SELECT Customer.fname, Customer.lname, Closed_Request.bill, Service_Request.date, Closed_Request.comment FROM Customer, Closed_Request, Service_Request 
-				 					WHERE Closed_Request.bill < 100 AND Closed_Request.rid = Service_Request.rid AND Service_Request.customer_id = Customer.id";
-         		int numCustomersLess100 = esql.executeQueryAndPrintResult(query);
+				 String query = "SELECT Customer.fname, Customer.lname, Closed_Request.bill, Service_Request.date, Closed_Request.comment FROM Customer, Closed_Request, Service_Request " +
+				 					"WHERE Closed_Request.bill < 100 AND Closed_Request.rid = Service_Request.rid AND Service_Request.customer_id = Customer.id";
+				MechanicShop reader = esql.forReports();
+				reader.profileReport("ListCustomersWithBillLessThan100", query);
+				//every row stays on its customer's shard, so the shard results are simply appended
+         		int numCustomersLess100 = (esql._router == null) ? reader.executeQueryAndPrintResult(query)
+         			: printResult(new String[]{"fname", "lname", "bill", "date", "comment"}, esql.executeQueryOnAllShards(query));
 				System.out.println ("Number of Customers with bills totaling less than $100: " + numCustomersLess100);
 				 
       		}catch(Exception e){ System.err.println (e.getMessage()); }
@@ -496,9 +955,12 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){
 		try{
-				String query = "SELECT allCars.fname, allCars.lname, allCars.numCars FROM (SELECT Owns.customer_id, Customer.fname, Customer.lname, COUNT(*) numCars FROM Owns,Customer 
-								WHERE Customer.id = Owns.customer_id GROUP BY Owns.customer_id, Customer.fname, Customer.lname) AS allCars WHERE numCars > 20";
-				int numCustomersMore20 = esql.executeQueryAndPrintResult(query);
+				String query = "SELECT allCars.fname, allCars.lname, allCars.numCars FROM (SELECT Owns.customer_id, Customer.fname, Customer.lname, COUNT(*) numCars FROM Owns,Customer " +
+								"WHERE Customer.id = Owns.customer_id GROUP BY Owns.customer_id, Customer.fname, Customer.lname) AS allCars WHERE numCars > 20";
+				MechanicShop reader = esql.forReports();
+				reader.profileReport("ListCustomersWithMoreThan20Cars", query);
+				int numCustomersMore20 = (esql._router == null) ? reader.executeQueryAndPrintResult(query)
+					: printResult(new String[]{"fname", "lname", "numcars"}, esql.executeQueryOnAllShards(query));
 				System.out.println ("Number of Customers with more than 20 cars: " + numCustomersMore20);
 		 
 			}catch(Exception e){ System.err.println (e.getMessage()); }
@@ -507,9 +969,24 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){
 		try{
-				 String query = "SELECT Car.make, Car.model, Car.year, Service_Request.odometer FROM Car,Service_Request 
-				 					WHERE Service_Request.car_vin = Car.vin AND Service_Request.odometer < 50000 AND Car.year < 1995";
-         		int numCarsBefore1995 = esql.executeQueryAndPrintResult(query);
+				 //one row per car, found through the (year, latest_odometer) index of Car_Mileage
+				 String query = "SELECT Car.make, Car.model, Car.year, Car_Mileage.latest_odometer FROM Car_Mileage, Car " +
+				 					"WHERE Car_Mileage.year < 1995 AND Car_Mileage.latest_odometer < 50000 AND Car.vin = Car_Mileage.car_vin";
+				 String perShard = "SELECT Car.make, Car.model, Car.year, Car_Mileage.latest_odometer, Car.vin, Car_Mileage.last_service FROM Car_Mileage, Car " +
+				 					"WHERE Car_Mileage.year < 1995 AND Car.vin = Car_Mileage.car_vin";
+				MechanicShop reader = esql.forReports();
+				reader.profileReport("ListCarsBefore1995With50000Milles", (esql._router == null) ? query : perShard);
+         		int numCarsBefore1995;
+         		if (esql._router == null){
+         			numCarsBefore1995 = reader.executeQueryAndPrintResult(query);
+         		}else{
+         			//a car serviced for customers on several shards has a summary row on each; keep the latest
+         			List<List<String>> rows = ShardRouter.latestBy(esql.executeQueryOnAllShards(perShard), 4, 5);
+         			List<List<String>> cars = new ArrayList<List<String>>();
+         			for (List<String> row : rows)
+         				if (Integer.parseInt(row.get(3).trim()) < 50000) cars.add(row.subList(0, 4));
+         			numCarsBefore1995 = printResult(new String[]{"make", "model", "year", "latest_odometer"}, cars);
+         		}
 				 System.out.println ("Number of Cars manufactured before 1995 with more than 50,000 miles: " + numCarsBefore1995);
 				 
       		}catch(Exception e){ System.err.println (e.getMessage()); }
@@ -523,11 +1000,23 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 		System.out.print("How many cars would you like listed, for this criteria?: "); String numCarsListedString = in.readLine();
 		int numCarsListed = Integer.parseInt(numCarsListedString);
 
-		String query = String.format("SELECT Car.make, Car.model, Car.vin, COUNT(Service_Request) as cnt FROM Car,Service_Request 
-										WHERE Service_Request.rid NOT IN (SELECT Service_Request.rid FROM Closed_Request,Service_Request WHERE Service_Request.rid = Closed_Request.rid) AND Car.vin = Service_Request.car_vin 
-										GROUP BY Car.make,Car.model,Car.vin HAVING COUNT(*) = %d ORDER BY cnt DESC LIMIT %d",numServRequests,numCarsListed);
+		String perCar = "SELECT Car.make, Car.model, Car.vin, COUNT(Service_Request) as cnt FROM Car,Service_Request " +
+										"WHERE Service_Request.rid NOT IN (SELECT Service_Request.rid FROM Closed_Request,Service_Request WHERE Service_Request.rid = Closed_Request.rid) AND Car.vin = Service_Request.car_vin " +
+										"GROUP BY Car.make,Car.model,Car.vin";
+		String query = String.format(perCar + " HAVING COUNT(*) = %d ORDER BY cnt DESC LIMIT %d",numServRequests,numCarsListed);
 
-		int totalValidRequests = esql.executeQueryAndPrintResult(query);
+		MechanicShop reader = esql.forReports();
+		reader.profileReport("ListKCarsWithTheMostServices", (esql._router == null) ? query : perCar);
+		int totalValidRequests;
+		if (esql._router == null){
+			totalValidRequests = reader.executeQueryAndPrintResult(query);
+		}else{
+			//a car's requests can sit on several shards: add up the counts, then filter and take the top K
+			List<List<String>> counted = new ArrayList<List<String>>();
+			for (List<String> row : ShardRouter.sumBy(esql.executeQueryOnAllShards(perCar), 3, 3))
+				if (Integer.parseInt(row.get(3).trim()) == numServRequests) counted.add(row);
+			totalValidRequests = printResult(new String[]{"make", "model", "vin", "cnt"}, ShardRouter.topK(counted, 3, numCarsListed));
+		}
 		 System.out.println ("The number of cars that fit this criteria: " + totalValidRequests);
 		 
 	}catch(Exception e){ System.err.println (e.getMessage()); }
@@ -536,10 +1025,14 @@ public static void CloseServiceRequest(MechanicShop esql) throws Exception{
 	
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){
 	try{
-		String query = "SELECT A.fname,A.lname, SUM(Closed_Request.bill) total_bill FROM (SELECT Customer.fname, Customer.lname, Customer.id, Closed_Request.bill, Closed_Request.rid FROM Customer, Closed_Request, Service_Request 
-						WHERE Closed_Request.rid = Service_Request.rid AND Customer.id = Service_Request.customer_id) AS A LEFT JOIN Closed_Request ON A.rid = Closed_Request.rid GROUP BY A.fname,A.lname,A.id ORDER BY total_bill DESC";
+		String query = "SELECT A.fname,A.lname, SUM(Closed_Request.bill) total_bill FROM (SELECT Customer.fname, Customer.lname, Customer.id, Closed_Request.bill, Closed_Request.rid FROM Customer, Closed_Request, Service_Request " +
+						"WHERE Closed_Request.rid = Service_Request.rid AND Customer.id = Service_Request.customer_id) AS A LEFT JOIN Closed_Request ON A.rid = Closed_Request.rid GROUP BY A.fname,A.lname,A.id ORDER BY total_bill DESC";
 
-		int numCustomers = esql.executeQueryAndPrintResult(query);
+		MechanicShop reader = esql.forReports();
+		reader.profileReport("ListCustomersInDescendingOrderOfTheirTotalBill", query);
+		//a customer's whole bill is on one shard, so the sorted shard results only need merging
+		int numCustomers = (esql._router == null) ? reader.executeQueryAndPrintResult(query)
+			: printResult(new String[]{"fname", "lname", "total_bill"}, ShardRouter.topK(esql.executeQueryOnAllShards(query), 2, 0));
 		 System.out.println ("The number of customers who fit this criteria: " + numCustomers);
 		 
 	}catch(Exception e){ System.err.println (e.getMessage()); }
@@ -0,0 +1,232 @@
+/*
+ * Report Query Profiler
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class runs a report query under EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON),
+ * stores the plan on disk with a timestamp, prints warnings for sequential
+ * scans, misestimated row counts and spills to disk, and compares the plan
+ * against the previous run of the same report.
+ *
+ */
+
+public class PlanProfiler{
+	//a node whose actual rows differ from the estimate by this factor is flagged
+	private static final double MISESTIMATE_FACTOR = 10.0;
+
+	//a run this many times slower than the previous one is flagged
+	private static final double REGRESSION_FACTOR = 2.0;
+
+	private static final Pattern NODE_TYPE = Pattern.compile("\"Node Type\":\\s*\"([^\"]*)\"");
+	private static final Pattern RELATION_NAME = Pattern.compile("\"Relation Name\":\\s*\"([^\"]*)\"");
+	private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*([0-9.]+)");
+	private static final Pattern ACTUAL_ROWS = Pattern.compile("\"Actual Rows\":\\s*([0-9.]+)");
+	private static final Pattern SORT_SPACE_TYPE = Pattern.compile("\"Sort Space Type\":\\s*\"([^\"]*)\"");
+	private static final Pattern HASH_BATCHES = Pattern.compile("\"Hash Batches\":\\s*([0-9]+)");
+	private static final Pattern HASHAGG_BATCHES = Pattern.compile("\"HashAgg Batches\":\\s*([0-9]+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("\"Execution Time\":\\s*([0-9.]+)");
+
+	//directory that keeps one JSON file per profiled run
+	private File _planDir = null;
+
+	public PlanProfiler(String planDir){
+		this._planDir = new File(planDir);
+	}
+
+	/**
+	 * Method to profile a report query.  The query is executed under
+	 * EXPLAIN ANALYZE, the plan is saved as <report>_<timestamp>.json and a
+	 * summary of the problems found is printed to standard out.
+	 *
+	 * @param connection the connection the report runs on
+	 * @param report the name of the report, used to group the stored plans
+	 * @param query the report query string
+	 * @throws java.sql.SQLException when failed to explain the query
+	 */
+	public void profile(Connection connection, String report, String query) throws SQLException {
+		Statement stmt = connection.createStatement ();
+		ResultSet rs = stmt.executeQuery ("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + query);
+		String plan = rs.next() ? rs.getString(1) : "";
+		stmt.close ();
+
+		File previous = latestPlan(report);
+		File current = savePlan(report, plan);
+
+		System.out.println("---- PROFILE " + report + " ----");
+		System.out.println("Plan saved to " + (current == null ? "<not saved>" : current.getPath()));
+		System.out.println("Execution time: " + executionTime(plan) + " ms");
+		List<String> warnings = inspect(plan);
+		for (String warning : warnings)
+			System.out.println("WARNING: " + warning);
+		if (warnings.isEmpty())
+			System.out.println("No sequential scans, misestimates or spills found");
+		if (previous != null)
+			compare(readPlan(previous), plan, previous.getName());
+		System.out.println("----------------------");
+	}//end profile
+
+	/**
+	 * Method to look for plan nodes worth a warning.  The JSON output lists
+	 * the properties of a node before the "Plans" array of its children, so
+	 * the text between two "Node Type" keys belongs to a single node.
+	 *
+	 * @param plan the JSON plan returned by EXPLAIN
+	 * @return a list of human readable warnings
+	 */
+	public static List<String> inspect(String plan){
+		List<String> warnings = new ArrayList<String>();
+		for (String node : splitNodes(plan)){
+			String type = find(NODE_TYPE, node);
+			String relation = find(RELATION_NAME, node);
+			String where = type + (relation == null ? "" : " on " + relation);
+
+			if ("Seq Scan".equals(type))
+				warnings.add("sequential scan: " + where);
+
+			String planRows = find(PLAN_ROWS, node);
+			String actualRows = find(ACTUAL_ROWS, node);
+			if (planRows != null && actualRows != null){
+				double estimated = Math.max(1.0, Double.parseDouble(planRows));
+				double actual = Math.max(1.0, Double.parseDouble(actualRows));
+				if (actual / estimated >= MISESTIMATE_FACTOR || estimated / actual >= MISESTIMATE_FACTOR)
+					warnings.add(String.format("row misestimate: %s planned %s rows, got %s", where, planRows, actualRows));
+			}
+
+			if ("Disk".equals(find(SORT_SPACE_TYPE, node)))
+				warnings.add("sort spilled to disk: " + where);
+			String batches = find(HASH_BATCHES, node);
+			if (batches != null && Integer.parseInt(batches) > 1)
+				warnings.add("hash spilled to disk in " + batches + " batches: " + where);
+			String aggBatches = find(HASHAGG_BATCHES, node);
+			if (aggBatches != null && Integer.parseInt(aggBatches) > 1)
+				warnings.add("aggregate spilled to disk in " + aggBatches + " batches: " + where);
+		}//end for
+		return warnings;
+	}//end inspect
+
+	/**
+	 * Method to print how a plan differs from the previous run of the same
+	 * report: a change of plan shape, or a large slowdown.
+	 */
+	private static void compare(String before, String after, String previousName){
+		List<String> oldShape = shape(before);
+		List<String> newShape = shape(after);
+		if (!oldShape.equals(newShape)){
+			System.out.println("WARNING: plan changed since " + previousName);
+			System.out.println("  before: " + oldShape);
+			System.out.println("  after:  " + newShape);
+		}else{
+			System.out.println("Plan unchanged since " + previousName);
+		}
+
+		double oldTime = executionTime(before);
+		double newTime = executionTime(after);
+		if (oldTime > 0 && newTime / oldTime >= REGRESSION_FACTOR)
+			System.out.println(String.format("WARNING: execution time went from %.3f ms to %.3f ms", oldTime, newTime));
+	}//end compare
+
+	/**
+	 * Method to reduce a plan to its node types and relations, in plan order.
+	 */
+	private static List<String> shape(String plan){
+		List<String> nodes = new ArrayList<String>();
+		for (String node : splitNodes(plan)){
+			String relation = find(RELATION_NAME, node);
+			nodes.add(find(NODE_TYPE, node) + (relation == null ? "" : "(" + relation + ")"));
+		}
+		return nodes;
+	}
+
+	private static List<String> splitNodes(String plan){
+		List<String> nodes = new ArrayList<String>();
+		int start = plan.indexOf("\"Node Type\"");
+		while (start >= 0){
+			int end = plan.indexOf("\"Node Type\"", start + 1);
+			nodes.add(end < 0 ? plan.substring(start) : plan.substring(start, end));
+			start = end;
+		}
+		return nodes;
+	}
+
+	private static double executionTime(String plan){
+		String time = find(EXECUTION_TIME, plan);
+		return time == null ? -1 : Double.parseDouble(time);
+	}
+
+	private static String find(Pattern pattern, String text){
+		Matcher m = pattern.matcher(text);
+		return m.find() ? m.group(1) : null;
+	}
+
+	private File savePlan(String report, String plan){
+		String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+		File file = new File(this._planDir, report + "_" + stamp + ".json");
+		try{
+			this._planDir.mkdirs();
+			FileWriter out = new FileWriter(file);
+			out.write(plan);
+			out.close();
+			return file;
+		}catch (IOException e){
+			System.err.println("Unable to save plan: " + e.getMessage());
+			return null;
+		}
+	}//end savePlan
+
+	/**
+	 * Method to find the newest stored plan of a report.  The timestamp in the
+	 * file name sorts in chronological order.
+	 */
+	private File latestPlan(String report){
+		File[] files = this._planDir.listFiles();
+		if (files == null) return null;
+		Arrays.sort(files);
+		File latest = null;
+		for (File f : files){
+			String name = f.getName();
+			if (name.startsWith(report + "_") && name.endsWith(".json"))
+				latest = f;
+		}
+		return latest;
+	}//end latestPlan
+
+	private static String readPlan(File file){
+		StringBuilder plan = new StringBuilder();
+		try{
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			String line;
+			while ((line = reader.readLine()) != null)
+				plan.append(line).append('\n');
+			reader.close();
+		}catch (IOException e){
+			System.err.println("Unable to read plan: " + e.getMessage());
+		}
+		return plan.toString();
+	}//end readPlan
+}
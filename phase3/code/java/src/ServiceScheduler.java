@@ -0,0 +1,214 @@
+/*
+ * Service Request Scheduler
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class hands open service requests (no Closed_Request and no
+ * Request_Assignment yet) to mechanics.  Requests wait in a priority queue
+ * ordered by age and by how often the car has been serviced; mechanics wait
+ * in a second queue ordered by current load relative to experience, so the
+ * oldest request goes to the most available, most experienced mechanic.
+ *
+ * With several shards there is still one pair of queues: requests of every
+ * shard compete for the same mechanics, and a mechanic's load counts the
+ * open assignments on all shards.  Each assignment is written to the shard
+ * that stores its request.
+ *
+ */
+
+public class ServiceScheduler{
+	//each earlier service request of the car counts as this many days of waiting
+	private static final int HISTORY_WEIGHT = 2;
+
+	//assignments written per round trip
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * A service request waiting for a mechanic.
+	 */
+	static class OpenRequest{
+		final int shard;
+		final int rid;
+		final int priority;
+
+		OpenRequest(int shard, int rid, int ageDays, int serviceCount){
+			this.shard = shard;
+			this.rid = rid;
+			this.priority = ageDays + HISTORY_WEIGHT * serviceCount;
+		}
+	}
+
+	/**
+	 * A mechanic and the number of assigned requests not closed yet.
+	 */
+	static class MechanicLoad{
+		final int mid;
+		final int experience;
+		int load;
+
+		MechanicLoad(int mid, int experience, int load){
+			this.mid = mid;
+			this.experience = experience;
+			this.load = load;
+		}
+
+		//open requests per year of experience, so seniors take more work
+		double weightedLoad(){
+			return (double) load / (experience + 1);
+		}
+	}
+
+	//one connection per shard, the first one also serving Mechanic
+	private List<Connection> _shards = null;
+
+	private PriorityQueue<OpenRequest> _requests = new PriorityQueue<OpenRequest>(11, new Comparator<OpenRequest>(){
+		public int compare(OpenRequest a, OpenRequest b){
+			if (a.priority != b.priority) return b.priority - a.priority;
+			if (a.rid != b.rid) return a.rid - b.rid;
+			return a.shard - b.shard;
+		}
+	});
+
+	private PriorityQueue<MechanicLoad> _mechanics = new PriorityQueue<MechanicLoad>(11, new Comparator<MechanicLoad>(){
+		public int compare(MechanicLoad a, MechanicLoad b){
+			int byLoad = Double.compare(a.weightedLoad(), b.weightedLoad());
+			if (byLoad != 0) return byLoad;
+			if (a.experience != b.experience) return b.experience - a.experience;
+			return a.mid - b.mid;
+		}
+	});
+
+	public ServiceScheduler(List<Connection> shards){
+		this._shards = shards;
+	}
+
+	/**
+	 * Method to fill both queues from every shard.  Mechanic is copied to
+	 * every shard, so it is read once; the open assignments of a mechanic
+	 * are counted on each shard and added up.
+	 *
+	 * @throws java.sql.SQLException when failed to read the requests or mechanics
+	 */
+	public void load() throws SQLException {
+		_requests.clear();
+		_mechanics.clear();
+
+		Map<Integer, MechanicLoad> byId = new HashMap<Integer, MechanicLoad>();
+		Statement stmt = _shards.get(0).createStatement ();
+		ResultSet rs = stmt.executeQuery ("SELECT id, experience FROM Mechanic");
+		while (rs.next())
+			byId.put(rs.getInt(1), new MechanicLoad(rs.getInt(1), rs.getInt(2), 0));
+		stmt.close ();
+
+		for (int shard = 0; shard < _shards.size(); ++shard){
+			stmt = _shards.get(shard).createStatement ();
+			rs = stmt.executeQuery (
+				"SELECT S.rid, CURRENT_DATE - S.date, COALESCE(M.num_requests, 0) " +
+				"FROM Service_Request S LEFT JOIN Car_Mileage M ON M.car_vin = S.car_vin " +
+				"WHERE NOT EXISTS (SELECT * FROM Closed_Request C WHERE C.rid = S.rid) " +
+				"AND NOT EXISTS (SELECT * FROM Request_Assignment A WHERE A.rid = S.rid)");
+			while (rs.next())
+				_requests.add(new OpenRequest(shard, rs.getInt(1), Math.max(0, rs.getInt(2)), rs.getInt(3)));
+
+			rs = stmt.executeQuery (
+				"SELECT A.mid, COUNT(*) FROM Request_Assignment A " +
+				"WHERE NOT EXISTS (SELECT * FROM Closed_Request C WHERE C.rid = A.rid) " +
+				"GROUP BY A.mid");
+			while (rs.next()){
+				MechanicLoad mechanic = byId.get(rs.getInt(1));
+				if (mechanic != null) mechanic.load += rs.getInt(2);
+			}
+			stmt.close ();
+		}//end for
+		_mechanics.addAll(byId.values());
+	}//end load
+
+	/**
+	 * Returns the number of open requests waiting in the queue.
+	 */
+	public int queueDepth(){
+		return _requests.size();
+	}
+
+	/**
+	 * Method to assign up to limit queued requests and store the assignments
+	 * in Request_Assignment of the shard that owns each request, BATCH_SIZE
+	 * rows per round trip.  Every shard writes in its own transaction, and
+	 * the transactions are committed only after all batches were accepted.
+	 *
+	 * @param limit the most requests to assign, or 0 for all of them
+	 * @return the number of requests assigned
+	 * @throws java.sql.SQLException when the assignments could not be stored
+	 */
+	public int dispatch(int limit) throws SQLException {
+		if (_mechanics.isEmpty()) return 0;
+
+		List<Boolean> autoCommit = new ArrayList<Boolean>();
+		List<PreparedStatement> inserts = new ArrayList<PreparedStatement>();
+		int[] pending = new int[_shards.size()];
+		int assigned = 0;
+		try{
+			for (Connection shard : _shards){
+				autoCommit.add(shard.getAutoCommit());
+				shard.setAutoCommit(false);
+				inserts.add(shard.prepareStatement (
+					"INSERT INTO Request_Assignment(rid, mid, assigned_on) VALUES(?, ?, CURRENT_DATE)"));
+			}
+
+			while (!_requests.isEmpty() && (limit <= 0 || assigned < limit)){
+				OpenRequest request = _requests.poll();
+				MechanicLoad mechanic = _mechanics.poll();
+				mechanic.load++;
+				_mechanics.add(mechanic);
+
+				PreparedStatement insert = inserts.get(request.shard);
+				insert.setInt(1, request.rid);
+				insert.setInt(2, mechanic.mid);
+				insert.addBatch();
+				if (++pending[request.shard] % BATCH_SIZE == 0)
+					insert.executeBatch();
+				++assigned;
+			}//end while
+			for (PreparedStatement insert : inserts)
+				insert.executeBatch();
+			for (Connection shard : _shards)
+				shard.commit();
+		}catch (SQLException e){
+			for (Connection shard : _shards){
+				try{
+					shard.rollback();
+				}catch (SQLException ignored){
+					// the shard already committed or lost its connection.
+				}
+			}
+			throw e;
+		}finally{
+			for (PreparedStatement insert : inserts)
+				insert.close();
+			for (int i = 0; i < autoCommit.size(); ++i)
+				_shards.get(i).setAutoCommit(autoCommit.get(i));
+		}//end try
+		return assigned;
+	}//end dispatch
+}
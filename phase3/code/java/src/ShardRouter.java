@@ -0,0 +1,203 @@
+/*
+ * Customer Shard Router
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class spreads the shop over several Postgres instances.  Customer,
+ * Owns, Service_Request, Closed_Request and the tables derived from them
+ * live on the shard chosen by customer_id; Mechanic and Car are copied to
+ * every shard.  Reports run on all shards at once and the partial results
+ * are combined with the static merge helpers below.
+ *
+ */
+
+public class ShardRouter{
+	private List<MechanicShop> _shards = null;
+	private ExecutorService _pool = null;
+
+	public ShardRouter(List<MechanicShop> shards){
+		this._shards = shards;
+		this._pool = Executors.newFixedThreadPool(shards.size());
+	}
+
+	/**
+	 * Returns every shard, the first one also serving the replicated tables.
+	 */
+	public List<MechanicShop> shards(){
+		return _shards;
+	}
+
+	/**
+	 * Returns the shard that stores a customer and all of its rows.
+	 *
+	 * @param customerId the Customer.id
+	 */
+	public MechanicShop shardFor(int customerId){
+		int n = _shards.size();
+		return _shards.get(((customerId % n) + n) % n);
+	}
+
+	/**
+	 * Method to run a query on every shard in parallel and concatenate the
+	 * records, in shard order.
+	 *
+	 * @param query the input query string
+	 * @return the records of all shards
+	 * @throws java.sql.SQLException when the query failed on any shard
+	 */
+	public List<List<String>> gather(final String query) throws SQLException {
+		List<Future<List<List<String>>>> parts = new ArrayList<Future<List<List<String>>>>();
+		for (final MechanicShop shard : _shards){
+			parts.add(_pool.submit(new Callable<List<List<String>>>(){
+				public List<List<String>> call() throws SQLException {
+					return shard.executeQueryAndReturnResult(query);
+				}
+			}));
+		}
+
+		List<List<String>> result = new ArrayList<List<String>>();
+		try{
+			for (Future<List<List<String>>> part : parts)
+				result.addAll(part.get());
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the shards");
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException(e.getCause());
+		}
+		return result;
+	}//end gather
+
+	/**
+	 * Method to run an update on every shard, for the replicated tables.
+	 * The update is prepared on every shard first (PREPARE TRANSACTION) and
+	 * committed only once all of them accepted it, so a failing shard
+	 * leaves no copy behind on the others.
+	 *
+	 * @param sql the input SQL string
+	 * @throws java.sql.SQLException when the update failed on any shard
+	 */
+	public void executeUpdateOnAll(String sql) throws SQLException {
+		String gid = "mechanicshop_" + UUID.randomUUID();
+		int prepared = 0;
+		try{
+			for (MechanicShop shard : _shards){
+				shard.prepareUpdate(sql, gid);
+				++prepared;
+			}
+		}catch (SQLException e){
+			for (int i = 0; i < prepared; ++i){
+				try{
+					_shards.get(i).finishPrepared(gid, false);
+				}catch (SQLException ignored){
+					// the prepared transaction stays visible in pg_prepared_xacts.
+				}
+			}
+			throw e;
+		}//end try
+
+		//every shard has the update durably prepared; commit failures can be finished by hand
+		SQLException failed = null;
+		for (MechanicShop shard : _shards){
+			try{
+				shard.finishPrepared(gid, true);
+			}catch (SQLException e){
+				failed = e;
+			}
+		}
+		if (failed != null)
+			throw new SQLException("Update is prepared on every shard but not committed on all of them, " +
+				"run COMMIT PREPARED '" + gid + "' where it is still listed in pg_prepared_xacts: " + failed.getMessage());
+	}//end executeUpdateOnAll
+
+	/**
+	 * Method to add up a numeric column over records that share their first
+	 * keyCols columns.  The first record of every key keeps its position.
+	 *
+	 * @param rows the gathered records
+	 * @param keyCols number of leading columns that form the key
+	 * @param sumCol the column to add up
+	 */
+	public static List<List<String>> sumBy(List<List<String>> rows, int keyCols, int sumCol){
+		Map<List<String>, List<String>> merged = new LinkedHashMap<List<String>, List<String>>();
+		for (List<String> row : rows){
+			List<String> key = row.subList(0, keyCols);
+			List<String> seen = merged.get(key);
+			if (seen == null){
+				merged.put(key, new ArrayList<String>(row));
+			}else{
+				long total = Long.parseLong(seen.get(sumCol).trim()) + Long.parseLong(row.get(sumCol).trim());
+				seen.set(sumCol, Long.toString(total));
+			}
+		}
+		return new ArrayList<List<String>>(merged.values());
+	}//end sumBy
+
+	/**
+	 * Method to keep, for every value of keyCol, the record with the largest
+	 * orderCol.  Used when the same car shows up on several shards.
+	 */
+	public static List<List<String>> latestBy(List<List<String>> rows, int keyCol, int orderCol){
+		Map<String, List<String>> latest = new LinkedHashMap<String, List<String>>();
+		for (List<String> row : rows){
+			List<String> seen = latest.get(row.get(keyCol));
+			if (seen == null || seen.get(orderCol).compareTo(row.get(orderCol)) < 0)
+				latest.put(row.get(keyCol), row);
+		}
+		return new ArrayList<List<String>>(latest.values());
+	}//end latestBy
+
+	/**
+	 * Method to order records by a numeric column, largest first, and keep
+	 * the first k of them.
+	 *
+	 * @param rows the gathered records
+	 * @param col the numeric column to order by
+	 * @param k number of records to keep, or 0 to keep all
+	 */
+	public static List<List<String>> topK(List<List<String>> rows, final int col, int k){
+		List<List<String>> sorted = new ArrayList<List<String>>(rows);
+		Collections.sort(sorted, new Comparator<List<String>>(){
+			public int compare(List<String> a, List<String> b){
+				return Double.compare(Double.parseDouble(b.get(col).trim()), Double.parseDouble(a.get(col).trim()));
+			}
+		});
+		if (k > 0 && sorted.size() > k)
+			return new ArrayList<List<String>>(sorted.subList(0, k));
+		return sorted;
+	}//end topK
+
+	/**
+	 * Method to close every shard but the first, which the caller owns, and
+	 * stop the worker threads.
+	 */
+	public void cleanup(){
+		_pool.shutdown();
+		for (int i = 1; i < _shards.size(); ++i)
+			_shards.get(i).cleanup();
+	}
+}
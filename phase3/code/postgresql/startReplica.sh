@@ -0,0 +1,23 @@
+#! /bin/bash
+# Starts a read-only streaming replica of the database started by
+# startPostgreSQL.sh, on port 5433.  Run it after createPostgreDB.sh.
+# Example: ./startReplica.sh
+#          cd ../java && ./run.sh $LOGNAME"_DB" 5432 $USER 5433
+folder=/tmp/$LOGNAME
+export PGDATA=$folder/replica/data
+
+#Clear Folder
+rm -rf $folder/replica
+mkdir -p $folder/replica
+
+#Copy the primary and write the standby settings (-R)
+pg_basebackup -h $folder/sockets -p 5432 -D $PGDATA -R -X stream
+
+sleep 1
+
+#Starting Replica
+pg_ctl -o "-p 5433 -c unix_socket_directories=$folder/sockets" -D $PGDATA -l $folder/replica/logfile start
+
+sleep 1
+#Checking of Replica is streaming
+psql -h $folder/sockets -p 5433 -c "SELECT pg_is_in_recovery(), pg_last_wal_replay_lsn()" $LOGNAME"_DB"
@@ -0,0 +1,33 @@
+#! /bin/bash
+# Starts N local Postgres instances on ports 5440, 5441, ... and loads the
+# shop on each, keeping only the customers that belong to that shard.
+# Example: ./startShards.sh 3
+#          cd ../java && ./run.sh $LOGNAME"_DB" 5440,5441,5442 $USER
+shards=${1:-2}
+folder=/tmp/$LOGNAME
+
+mkdir -p $folder/sockets
+
+for ((i = 0; i < shards; i++)); do
+	port=$((5440 + i))
+	export PGDATA=$folder/shard$i/data
+
+	#Clear and initialize the shard
+	rm -rf $folder/shard$i
+	mkdir -p $PGDATA
+	initdb
+
+	sleep 1
+
+	#prepared transactions keep the copies of Mechanic and Car in step
+	pg_ctl -o "-p $port -c unix_socket_directories=$folder/sockets -c max_prepared_transactions=16" -D $PGDATA -l $folder/shard$i/logfile start
+
+	sleep 1
+
+	createdb -h $folder/sockets -p $port $LOGNAME"_DB"
+	cp ../data/*.csv $PGDATA/.
+	psql -h $folder/sockets -p $port $LOGNAME"_DB" < ../sql/create.sql
+	psql -h $folder/sockets -p $port -v shards=$shards -v shard=$i $LOGNAME"_DB" < ../sql/shard.sql
+
+	echo "Shard $i of $shards running on port $port"
+done
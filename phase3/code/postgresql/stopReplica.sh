@@ -0,0 +1,2 @@
+#! /bin/bash
+pg_ctl -D /tmp/$LOGNAME/replica/data stop
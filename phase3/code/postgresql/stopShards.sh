@@ -0,0 +1,7 @@
+#! /bin/bash
+# Stops the instances started by startShards.sh
+# Example: ./stopShards.sh 3
+shards=${1:-2}
+for ((i = 0; i < shards; i++)); do
+	pg_ctl -D /tmp/$LOGNAME/shard$i/data stop
+done
@@ -4,6 +4,8 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Car_Mileage CASCADE;--OK
+DROP TABLE IF EXISTS Request_Assignment CASCADE;--OK
 
 
 -------------
@@ -87,6 +89,35 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+--Open requests handed to a mechanic by DispatchOpenServiceRequests
+CREATE TABLE Request_Assignment
+(
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	assigned_on DATE NOT NULL,
+	PRIMARY KEY (rid),
+	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+);
+CREATE INDEX request_assignment_mid ON Request_Assignment(mid);
+
+---------------
+---SUMMARIES---
+---------------
+--One row per serviced car, kept up to date by InsertServiceRequest
+CREATE TABLE Car_Mileage
+(
+	car_vin VARCHAR(16) NOT NULL,
+	year _YEAR NOT NULL, --copied from Car so (year, mileage) lookups need one index
+	latest_odometer _PINTEGER NOT NULL, --odometer of the most recent request
+	max_odometer _PINTEGER NOT NULL,
+	last_service DATE NOT NULL,
+	num_requests _PINTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+CREATE INDEX car_mileage_year_odometer ON Car_Mileage(year, latest_odometer);
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -147,4 +178,12 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+INSERT INTO Car_Mileage (car_vin, year, latest_odometer, max_odometer, last_service, num_requests)
+SELECT Car.vin, Car.year,
+	(SELECT S.odometer FROM Service_Request S WHERE S.car_vin = Car.vin ORDER BY S.date DESC, S.rid DESC LIMIT 1),
+	MAX(Service_Request.odometer), MAX(Service_Request.date), COUNT(*)
+FROM Car, Service_Request
+WHERE Service_Request.car_vin = Car.vin
+GROUP BY Car.vin, Car.year;
\ No newline at end of file
@@ -0,0 +1,21 @@
+--Keeps only the rows of shard :shard out of :shards on a database loaded
+--with create.sql.  Customers live on shard (id mod :shards) together with
+--their Owns, Service_Request and Closed_Request rows; Mechanic and Car stay
+--complete on every shard.
+--Run with: psql -v shards=N -v shard=I <db> < shard.sql
+
+DELETE FROM Request_Assignment WHERE rid IN (SELECT rid FROM Service_Request WHERE customer_id % :shards <> :shard);
+DELETE FROM Closed_Request WHERE rid IN (SELECT rid FROM Service_Request WHERE customer_id % :shards <> :shard);
+DELETE FROM Service_Request WHERE customer_id % :shards <> :shard;
+DELETE FROM Owns WHERE customer_id % :shards <> :shard;
+DELETE FROM Customer WHERE id % :shards <> :shard;
+
+--Rebuild the mileage summary from the requests left on this shard
+DELETE FROM Car_Mileage;
+INSERT INTO Car_Mileage (car_vin, year, latest_odometer, max_odometer, last_service, num_requests)
+SELECT Car.vin, Car.year,
+	(SELECT S.odometer FROM Service_Request S WHERE S.car_vin = Car.vin ORDER BY S.date DESC, S.rid DESC LIMIT 1),
+	MAX(Service_Request.odometer), MAX(Service_Request.date), COUNT(*)
+FROM Car, Service_Request
+WHERE Service_Request.car_vin = Car.vin
+GROUP BY Car.vin, Car.year;